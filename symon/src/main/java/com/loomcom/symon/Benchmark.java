@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.loomcom.symon;
+
+import com.loomcom.symon.machines.Machine;
+import com.loomcom.symon.machines.SimpleMachine;
+import com.loomcom.symon.machines.SymonMachine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures raw CPU throughput of the two execution cores, each with the
+ * bus's direct memory fast path on and off, on the same workloads: Klaus
+ * Dormann's 6502 functional test on the simple machine, and a short
+ * floating point loop in EhBASIC on the Symon machine.
+ * <p/>
+ * Each workload is run a few times to warm up the JIT, then timed over
+ * several rounds, alternating between configurations. Running them all in
+ * one JVM lets each one's profile affect the others' compiled code, so use
+ * <code>-core</code> and <code>-bus</code> to measure them in separate runs
+ * for cleaner numbers. Throughput is reported in emulated MHz (clock cycles
+ * per second of wall time) and nanoseconds per instruction. Everything runs
+ * unthrottled and without a UI.
+ */
+public class Benchmark {
+
+    private static final String FUNCTIONAL_TEST = "tests/6502_functional_test.bin";
+    private static final int FUNCTIONAL_TEST_START = 0x0400;
+    private static final int FUNCTIONAL_TEST_SUCCESS = 0x3399;
+
+    private static final String EHBASIC_ROM = "ehbasic.rom";
+    private static final long EHBASIC_STEPS = 20000000L;
+    private static final String EHBASIC_INPUT =
+            "C\n\n" +
+            "10 FOR I=1 TO 100000\n" +
+            "20 A=SQR(I)*I/3\n" +
+            "30 NEXT I\n" +
+            "RUN\n";
+
+    /**
+     * A repeatable unit of work. Each run gets a freshly built machine.
+     */
+    private static abstract class Workload {
+        final String name;
+
+        Workload(String name) {
+            this.name = name;
+        }
+
+        abstract HeadlessRunner create() throws Exception;
+
+        /**
+         * @return true if the run ended the way this workload expects.
+         */
+        boolean check(HeadlessRunner runner, HeadlessRunner.HaltReason reason) {
+            return true;
+        }
+    }
+
+    private static double mhz(HeadlessRunner runner) {
+        return runner.getCycles() * 1000.0 / runner.getElapsedNanos();
+    }
+
+    private static double nsPerInstruction(HeadlessRunner runner) {
+        return (double) runner.getElapsedNanos() / runner.getSteps();
+    }
+
+    /**
+     * A combination of CPU core and bus access path to measure.
+     */
+    private static class Config {
+        final boolean directDispatch;
+        final boolean fastPath;
+
+        Config(boolean directDispatch, boolean fastPath) {
+            this.directDispatch = directDispatch;
+            this.fastPath = fastPath;
+        }
+
+        @Override
+        public String toString() {
+            return (directDispatch ? "direct" : "decoded") + "/" + (fastPath ? "fast" : "device");
+        }
+    }
+
+    private static HeadlessRunner run(Workload workload, Config config) throws Exception {
+        HeadlessRunner runner = workload.create();
+        Cpu cpu = runner.getMachine().getCpu();
+        cpu.setDirectDispatch(config.directDispatch);
+        cpu.setClockPeriodInNs(0);
+        runner.getMachine().getBus().setFastPathEnabled(config.fastPath);
+
+        HeadlessRunner.HaltReason reason = runner.run();
+        if (!workload.check(runner, reason)) {
+            throw new IllegalStateException(workload.name + " failed: " + runner.getSummary(reason));
+        }
+        return runner;
+    }
+
+    private static void benchmark(Workload workload, List<Config> configs, int warmups, int rounds) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            for (Config config : configs) {
+                run(workload, config);
+            }
+        }
+
+        double[][] results = new double[configs.size()][rounds];
+        double[][] nsPerOp = new double[configs.size()][rounds];
+        for (int i = 0; i < rounds; i++) {
+            for (int c = 0; c < configs.size(); c++) {
+                HeadlessRunner runner = run(workload, configs.get(c));
+                results[c][i] = mhz(runner);
+                nsPerOp[c][i] = nsPerInstruction(runner);
+            }
+        }
+
+        for (int c = 0; c < configs.size(); c++) {
+            Arrays.sort(results[c]);
+            Arrays.sort(nsPerOp[c]);
+            System.out.println(String.format(Locale.ENGLISH, "%-18s %-16s %9.2f %9.2f %9.2f",
+                                             workload.name,
+                                             configs.get(c),
+                                             results[c][rounds - 1],
+                                             results[c][rounds / 2],
+                                             nsPerOp[c][rounds / 2]));
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: Benchmark [options]\n" +
+                           "  -samples DIR   Directory holding the sample ROMs (default: samples)\n" +
+                           "  -core CORE     decoded, direct or both (default: both)\n" +
+                           "  -bus PATH      fast, device or both (default: both)\n" +
+                           "  -warmup N      Untimed runs of each core before measuring (default: 3)\n" +
+                           "  -rounds N      Timed runs of each core (default: 5)");
+    }
+
+    public static void main(String args[]) throws Exception {
+        File samples = new File("samples");
+        int warmups = 3;
+        int rounds = 5;
+        boolean[] cores = {false, true};
+        boolean[] paths = {true, false};
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i].toLowerCase(Locale.ENGLISH);
+                if (arg.equals("-help")) {
+                    usage();
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Unknown or incomplete option: " + args[i]);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "-samples":
+                        samples = new File(value);
+                        break;
+                    case "-warmup":
+                        warmups = Integer.parseInt(value);
+                        break;
+                    case "-core":
+                        switch (value.toLowerCase(Locale.ENGLISH)) {
+                            case "decoded":
+                                cores = new boolean[] {false};
+                                break;
+                            case "direct":
+                                cores = new boolean[] {true};
+                                break;
+                            case "both":
+                                cores = new boolean[] {false, true};
+                                break;
+                            default:
+                                throw new IllegalArgumentException("Unknown core: " + value);
+                        }
+                        break;
+                    case "-bus":
+                        switch (value.toLowerCase(Locale.ENGLISH)) {
+                            case "fast":
+                                paths = new boolean[] {true};
+                                break;
+                            case "device":
+                                paths = new boolean[] {false};
+                                break;
+                            case "both":
+                                paths = new boolean[] {true, false};
+                                break;
+                            default:
+                                throw new IllegalArgumentException("Unknown bus path: " + value);
+                        }
+                        break;
+                    case "-rounds":
+                        rounds = Math.max(1, Integer.parseInt(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i - 1]);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage();
+            System.exit(1);
+            return;
+        }
+
+        final File functionalTest = new File(samples, FUNCTIONAL_TEST);
+        final File ehbasic = new File(samples, EHBASIC_ROM);
+
+        Workload functionalTestWorkload = new Workload("functional-test") {
+            @Override
+            HeadlessRunner create() throws Exception {
+                HeadlessRunner runner = new HeadlessRunner(new SimpleMachine());
+                runner.loadProgram(functionalTest, 0x0000);
+                runner.getMachine().getCpu().setProgramCounter(FUNCTIONAL_TEST_START);
+                return runner;
+            }
+
+            @Override
+            boolean check(HeadlessRunner runner, HeadlessRunner.HaltReason reason) {
+                return reason == HeadlessRunner.HaltReason.TRAP &&
+                       runner.getMachine().getCpu().getProgramCounter() == FUNCTIONAL_TEST_SUCCESS;
+            }
+        };
+
+        Workload ehbasicWorkload = new Workload("ehbasic") {
+            @Override
+            HeadlessRunner create() throws Exception {
+                Machine machine = new SymonMachine();
+                HeadlessRunner runner = new HeadlessRunner(machine);
+                runner.loadRom(ehbasic);
+                machine.getCpu().reset();
+                runner.setConsole(new ByteArrayInputStream(EHBASIC_INPUT.getBytes(Charset.forName("US-ASCII"))),
+                                  new ByteArrayOutputStream());
+                runner.setMaxSteps(EHBASIC_STEPS);
+                return runner;
+            }
+
+            @Override
+            boolean check(HeadlessRunner runner, HeadlessRunner.HaltReason reason) {
+                return reason == HeadlessRunner.HaltReason.STEP_LIMIT;
+            }
+        };
+
+        List<Config> configs = new ArrayList<>();
+        for (boolean core : cores) {
+            for (boolean path : paths) {
+                configs.add(new Config(core, path));
+            }
+        }
+
+        System.out.println(String.format(Locale.ENGLISH, "%-18s %-16s %9s %9s %9s",
+                                         "Workload", "Core/Bus", "Best MHz", "Med MHz", "ns/inst"));
+        benchmark(functionalTestWorkload, configs, warmups, rounds);
+        benchmark(ehbasicWorkload, configs, warmups, rounds);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.loomcom.symon;
+
+import com.loomcom.symon.util.Utils;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A breakpoint that stops only when a register comparison holds, such as
+ * <code>A == $0D at $C123</code> or <code>SP &lt; $20</code>. Without an
+ * address, the condition is tested before every instruction.
+ * <p/>
+ * The text is parsed once, and testing the condition is then a couple of
+ * switches over ints.
+ */
+public class BreakCondition {
+
+    private static final Pattern PATTERN = Pattern.compile(
+            "\\s*(A|X|Y|SP|S|P|PC)\\s*(==|=|!=|<=|>=|<|>)\\s*\\$?([0-9A-F]{1,4})" +
+            "(?:\\s+AT\\s+\\$?([0-9A-F]{1,4}))?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final String[] REGISTER_NAMES = {"A", "X", "Y", "SP", "P", "PC"};
+    private static final int A = 0;
+    private static final int X = 1;
+    private static final int Y = 2;
+    private static final int SP = 3;
+    private static final int P = 4;
+    private static final int PC = 5;
+
+    private static final String[] OPERATORS = {"==", "!=", "<", "<=", ">", ">="};
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int GE = 5;
+
+    private final int register;
+    private final int operator;
+    private final int value;
+    private final int address;
+
+    private BreakCondition(int register, int operator, int value, int address) {
+        this.register = register;
+        this.operator = operator;
+        this.value = value;
+        this.address = address;
+    }
+
+    /**
+     * @return The condition described by <code>text</code>, or null if it is
+     *         not a condition.
+     */
+    public static BreakCondition parse(String text) {
+        Matcher m = PATTERN.matcher(text);
+        if (!m.matches()) {
+            return null;
+        }
+
+        String name = m.group(1).toUpperCase(Locale.ENGLISH);
+        int register = name.equals("S") ? SP : indexOf(REGISTER_NAMES, name);
+        String op = m.group(2);
+        int operator = op.equals("=") ? EQ : indexOf(OPERATORS, op);
+        int value = Integer.parseInt(m.group(3), 16);
+        int address = m.group(4) == null ? -1 : Integer.parseInt(m.group(4), 16);
+        return new BreakCondition(register, operator, value, address);
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(value);
+    }
+
+    /**
+     * @return The address this condition is tested at, or -1 if it is tested
+     *         at every address.
+     */
+    public int getAddress() {
+        return address;
+    }
+
+    public boolean matches(CpuState state) {
+        int v;
+        switch (register) {
+            case A:
+                v = state.a;
+                break;
+            case X:
+                v = state.x;
+                break;
+            case Y:
+                v = state.y;
+                break;
+            case SP:
+                v = state.sp;
+                break;
+            case P:
+                v = state.getStatusFlag();
+                break;
+            default:
+                v = state.pc;
+                break;
+        }
+
+        switch (operator) {
+            case EQ:
+                return v == value;
+            case NE:
+                return v != value;
+            case LT:
+                return v < value;
+            case LE:
+                return v <= value;
+            case GT:
+                return v > value;
+            default:
+                return v >= value;
+        }
+    }
+
+    /**
+     * @return The comparison, without the address.
+     */
+    public String getDescription() {
+        String hex = (value > 0xff || register == PC) ? Utils.wordToHex(value) : Utils.byteToHex(value);
+        return REGISTER_NAMES[register] + " " + OPERATORS[operator] + " $" + hex;
+    }
+
+    public String toString() {
+        return address < 0 ? getDescription() : getDescription() + " at $" + Utils.wordToHex(address);
+    }
+}
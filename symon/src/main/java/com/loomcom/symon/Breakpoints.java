@@ -1,44 +1,247 @@
 package com.loomcom.symon;
 
 import com.loomcom.symon.exceptions.MemoryAccessException;
+import com.loomcom.symon.exceptions.MemoryRangeException;
 import com.loomcom.symon.util.Utils;
 
 import javax.swing.table.AbstractTableModel;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * The set of breakpoints, and the table model that shows them. There are three
+ * kinds: plain PC breakpoints, conditional breakpoints ({@link BreakCondition}),
+ * and memory watchpoints ({@link Watchpoint}).
+ * <p/>
+ * The run loop checks breakpoints after every instruction, so PC membership is
+ * kept in 64K bit maps that can be tested without locking or allocation, and
+ * conditions are only tested at their own address unless they apply
+ * everywhere. Sorted lists of the same entries back the table. Breakpoints are
+ * added and removed on the Swing event thread.
+ */
 public class Breakpoints extends AbstractTableModel {
 
+    private static final Pattern ADDRESS_PATTERN =
+            Pattern.compile("\\s*\\$?([0-9A-F]{1,4})\\s*", Pattern.CASE_INSENSITIVE);
+
+    // One bit per address with a plain breakpoint
+    private final long[] bitmap = new long[1024];
+    // One bit per address with a conditional breakpoint
+    private final long[] conditionBitmap = new long[1024];
+    // The conditions, and whether any of them apply at every address
+    private volatile BreakCondition[] conditions = new BreakCondition[0];
+    private volatile boolean anywhereConditions;
+    private volatile Watchpoint[] watchpoints = new Watchpoint[0];
+    // Written after everything else changes, so that reading it first makes
+    // the change visible to the run loop
+    private volatile int count;
+
     private TreeSet<Integer> breakpoints;
+    // Sorted copy of the breakpoints, for the table
+    private List<Integer> sortedBreakpoints;
+    private List<BreakCondition> conditionList;
+    private List<Watchpoint> watchpointList;
     private Simulator simulator;
+    private Bus bus;
 
     public Breakpoints(Simulator simulator) {
+        this(simulator, null);
+    }
+
+    /**
+     * @param bus The bus to place watchpoints on.
+     */
+    public Breakpoints(Simulator simulator, Bus bus) {
         this.breakpoints = new TreeSet<>();
+        this.sortedBreakpoints = new ArrayList<>();
+        this.conditionList = new ArrayList<>();
+        this.watchpointList = new ArrayList<>();
         this.simulator = simulator;
+        this.bus = bus;
+    }
+
+    /**
+     * @return true if there are no breakpoints at all, in which case the run
+     *         loop need not check the PC.
+     */
+    public boolean isEmpty() {
+        return count == 0;
     }
 
     public boolean contains(int address) {
-        return this.breakpoints.contains(address);
+        if (count == 0) {
+            return false;
+        }
+        address &= 0xffff;
+        return (bitmap[address >>> 6] & (1L << address)) != 0;
+    }
+
+    /**
+     * @return true if the simulator should stop before executing the
+     *         instruction at <code>state.pc</code>: there is a breakpoint there,
+     *         a condition holds, or a watchpoint was hit by the last instruction.
+     */
+    public boolean shouldBreak(CpuState state) {
+        if (count == 0) {
+            return false;
+        }
+
+        boolean hit = false;
+        for (Watchpoint watchpoint : watchpoints) {
+            // Clear every hit, so that none is left over for next time
+            hit |= watchpoint.checkAndClearHit();
+        }
+        if (hit) {
+            return true;
+        }
+
+        int pc = state.pc;
+        long bit = 1L << pc;
+        if ((bitmap[pc >>> 6] & bit) != 0) {
+            return true;
+        }
+        if (anywhereConditions || (conditionBitmap[pc >>> 6] & bit) != 0) {
+            for (BreakCondition condition : conditions) {
+                int address = condition.getAddress();
+                if ((address < 0 || address == pc) && condition.matches(state)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget any watchpoint hits not yet seen by {@link #shouldBreak(CpuState)},
+     * such as those made while single stepping.
+     */
+    public void clearWatchpointHits() {
+        for (Watchpoint watchpoint : watchpoints) {
+            watchpoint.checkAndClearHit();
+        }
+    }
+
+    /**
+     * Add a breakpoint from its text form: a plain hex address, a condition
+     * such as <code>A == $0D at $C123</code>, or a watchpoint such as
+     * <code>write $8800</code>.
+     *
+     * @throws IllegalArgumentException if the text is not understood.
+     * @throws MemoryRangeException     if a watchpoint is not on the bus.
+     */
+    public void add(String text) throws MemoryRangeException {
+        Matcher m = ADDRESS_PATTERN.matcher(text);
+        if (m.matches()) {
+            addBreakpoint(Integer.parseInt(m.group(1), 16));
+            return;
+        }
+        Watchpoint watchpoint = Watchpoint.parse(text);
+        if (watchpoint != null) {
+            addWatchpoint(watchpoint);
+            return;
+        }
+        BreakCondition condition = BreakCondition.parse(text);
+        if (condition != null) {
+            addCondition(condition);
+            return;
+        }
+        throw new IllegalArgumentException("Can't parse breakpoint " + text);
     }
 
     public void addBreakpoint(int address) {
-        this.breakpoints .add(address);
-        fireTableDataChanged();
+        address &= 0xffff;
+        if (this.breakpoints.add(address)) {
+            bitmap[address >>> 6] |= 1L << address;
+            changed();
+        }
     }
 
     public void removeBreakpoint(int address) {
-        this.breakpoints.remove(address);
-        fireTableDataChanged();
+        address &= 0xffff;
+        if (this.breakpoints.remove(address)) {
+            bitmap[address >>> 6] &= ~(1L << address);
+            changed();
+        }
     }
 
+    public void addCondition(BreakCondition condition) {
+        conditionList.add(condition);
+        conditionsChanged();
+    }
+
+    public void removeCondition(BreakCondition condition) {
+        if (conditionList.remove(condition)) {
+            conditionsChanged();
+        }
+    }
+
+    /**
+     * @throws MemoryRangeException if the watchpoint is not on the bus.
+     */
+    public void addWatchpoint(Watchpoint watchpoint) throws MemoryRangeException {
+        if (bus == null) {
+            throw new IllegalStateException("No bus to watch.");
+        }
+        bus.addBusListener(watchpoint, watchpoint.getStart(), watchpoint.getEnd());
+        watchpointList.add(watchpoint);
+        watchpoints = watchpointList.toArray(new Watchpoint[watchpointList.size()]);
+        changed();
+    }
+
+    public void removeWatchpoint(Watchpoint watchpoint) {
+        if (watchpointList.remove(watchpoint)) {
+            bus.removeBusListener(watchpoint);
+            watchpoints = watchpointList.toArray(new Watchpoint[watchpointList.size()]);
+            changed();
+        }
+    }
+
+    /**
+     * Remove the entry shown in row <code>index</code> of the table.
+     */
     public void removeBreakpointAtIndex(int index) {
         if (index < 0) {
             return;
         }
+        if (index < sortedBreakpoints.size()) {
+            removeBreakpoint(sortedBreakpoints.get(index));
+            return;
+        }
+        index -= sortedBreakpoints.size();
+        if (index < conditionList.size()) {
+            removeCondition(conditionList.get(index));
+            return;
+        }
+        index -= conditionList.size();
+        if (index < watchpointList.size()) {
+            removeWatchpoint(watchpointList.get(index));
+        }
+    }
+
+    private void conditionsChanged() {
+        boolean anywhere = false;
+        for (int i = 0; i < conditionBitmap.length; i++) {
+            conditionBitmap[i] = 0;
+        }
+        for (BreakCondition condition : conditionList) {
+            int address = condition.getAddress();
+            if (address < 0) {
+                anywhere = true;
+            } else {
+                conditionBitmap[address >>> 6] |= 1L << address;
+            }
+        }
+        conditions = conditionList.toArray(new BreakCondition[conditionList.size()]);
+        anywhereConditions = anywhere;
+        changed();
+    }
 
-        ArrayList<Integer> values = new ArrayList<>(breakpoints);
-        int value = values.get(index);
-        this.breakpoints.remove(value);
+    private void changed() {
+        this.sortedBreakpoints = new ArrayList<>(breakpoints);
+        this.count = breakpoints.size() + conditionList.size() + watchpointList.size();
         fireTableDataChanged();
     }
 
@@ -57,7 +260,7 @@ public class Breakpoints extends AbstractTableModel {
 
     @Override
     public int getRowCount() {
-        return breakpoints.size();
+        return sortedBreakpoints.size() + conditionList.size() + watchpointList.size();
     }
 
     @Override
@@ -67,12 +270,15 @@ public class Breakpoints extends AbstractTableModel {
 
     @Override
     public Object getValueAt(int rowIndex, int columnIndex) {
-        ArrayList<Integer> values = new ArrayList<>(breakpoints);
+        if (rowIndex >= sortedBreakpoints.size()) {
+            return getConditionOrWatchpointValueAt(rowIndex - sortedBreakpoints.size(), columnIndex);
+        }
+
+        int address = sortedBreakpoints.get(rowIndex);
 
         if (columnIndex == 0) {
-            return "$" + Utils.wordToHex(values.get(rowIndex));
+            return "$" + Utils.wordToHex(address);
         } else if (columnIndex == 1) {
-            int address = values.get(rowIndex);
             try {
                 return simulator.disassembleOpAtAddress(address);
             } catch (MemoryAccessException ex) {
@@ -82,4 +288,22 @@ public class Breakpoints extends AbstractTableModel {
             return null;
         }
     }
+
+    private Object getConditionOrWatchpointValueAt(int index, int columnIndex) {
+        if (index < conditionList.size()) {
+            BreakCondition condition = conditionList.get(index);
+            if (columnIndex == 0) {
+                return condition.getAddress() < 0 ? "Any" : "$" + Utils.wordToHex(condition.getAddress());
+            } else {
+                return "if " + condition.getDescription();
+            }
+        }
+
+        Watchpoint watchpoint = watchpointList.get(index - conditionList.size());
+        if (columnIndex == 0) {
+            return watchpoint.getRangeDescription();
+        } else {
+            return "on " + watchpoint.getKindDescription();
+        }
+    }
 }
@@ -24,6 +24,7 @@
 package com.loomcom.symon;
 
 import com.loomcom.symon.devices.Device;
+import com.loomcom.symon.devices.Memory;
 import com.loomcom.symon.exceptions.MemoryAccessException;
 import com.loomcom.symon.exceptions.MemoryRangeException;
 
@@ -51,12 +52,53 @@ public class Bus {
     // The CPU
     private Cpu cpu;
 
+    // Device events, run in emulated time by the CPU
+    private final EventScheduler scheduler = new EventScheduler();
+
     // Ordered sets of IO devices, associated with their priority
     private Map<Integer, SortedSet<Device>> deviceMap;
 
+    // The priority each device was added with
+    private Map<Device, Integer> devicePriorities;
+
+    // Cached result of getDevices(), cleared whenever a device is added or removed
+    private SortedSet<Device> sortedDevices;
+
     // an array for quick lookup of adresses, brute-force style
     private Device[] deviceAddressArray;
 
+    // Page tables for the fast path. A 256 byte page that lies entirely inside a
+    // plain Memory device points straight at that device's backing array, starting
+    // at pageBase. Pages with anything else on them are null, and go through the
+    // device. Read-only memory only gets an entry in readPages.
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private byte[][] readPages;
+    private byte[][] writePages;
+    private int[] pageBase;
+    private boolean fastPathEnabled = true;
+
+    // Devices holding the IRQ line low
+    private final List<Device> irqSources = new ArrayList<Device>();
+
+    // Bus listeners and the address ranges they watch, or null if there are none.
+    // The array is replaced rather than changed, so the CPU thread always sees
+    // a consistent set.
+    private volatile ListenerRange[] busListeners;
+
+    private static class ListenerRange {
+        final BusListener listener;
+        final int start;
+        final int end;
+
+        ListenerRange(BusListener listener, int start, int end) {
+            this.listener = listener;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
 
     public Bus(int size) {
         this(0, size - 1);
@@ -64,8 +106,16 @@ public class Bus {
 
     public Bus(int startAddress, int endAddress) {
         this.deviceMap = new HashMap<>();
+        this.devicePriorities = new HashMap<>();
         this.startAddress = startAddress;
         this.endAddress = endAddress;
+
+        int size = (endAddress - startAddress) + 1;
+        int pages = (size + PAGE_MASK) >> PAGE_SHIFT;
+        this.deviceAddressArray = new Device[size];
+        this.readPages = new byte[pages][];
+        this.writePages = new byte[pages][];
+        this.pageBase = new int[pages];
     }
 
     public int startAddress() {
@@ -76,18 +126,206 @@ public class Bus {
         return endAddress;
     }
 
-    private void buildDeviceAddressArray() {
+    /**
+     * True if <code>device</code> should be mapped in place of <code>current</code>
+     * where the two overlap. The higher priority wins, and at equal priority
+     * the device that starts later wins, so a small device can sit on top of a
+     * larger one.
+     */
+    private boolean outranks(Device device, int priority, Device current) {
+        if (current == null) {
+            return true;
+        }
+        int currentPriority = devicePriorities.get(current);
+        if (priority != currentPriority) {
+            return priority > currentPriority;
+        }
+        return device.getMemoryRange().startAddress() >= current.getMemoryRange().startAddress();
+    }
+
+    /**
+     * Map <code>device</code> at every address between <code>first</code> and
+     * <code>last</code> (bus offsets, inclusive) that it outranks the current owner of.
+     */
+    private void mapDevice(Device device, int priority, int first, int last) {
+        Device current = null;
+        boolean wins = false;
+        for (int offset = first; offset <= last; offset++) {
+            Device d = deviceAddressArray[offset];
+            if (d != current || offset == first) {
+                current = d;
+                wins = outranks(device, priority, d);
+            }
+            if (wins) {
+                deviceAddressArray[offset] = device;
+            }
+        }
+    }
+
+    private int firstOffset(Device device) {
+        return device.getMemoryRange().startAddress() - this.startAddress;
+    }
+
+    private int lastOffset(Device device) {
+        return device.getMemoryRange().endAddress() - this.startAddress;
+    }
+
+    private void updatePageTables(int firstOffset, int lastOffset) {
         int size = (this.endAddress - this.startAddress) + 1;
-        deviceAddressArray = new Device[size];
+        int firstPage = firstOffset >> PAGE_SHIFT;
+        int lastPage = lastOffset >> PAGE_SHIFT;
 
-        // getDevices() provides an OrderedSet with devices ordered by priorities
-        for (Device device : getDevices()) {
-            MemoryRange range = device.getMemoryRange();
-            for (int address = range.startAddress; address <= range.endAddress; ++address) {
-                deviceAddressArray[address - this.startAddress] = device;
+        for (int page = firstPage; page <= lastPage; page++) {
+            readPages[page] = null;
+            writePages[page] = null;
+
+            int first = page << PAGE_SHIFT;
+            int last = first + PAGE_MASK;
+            if (!fastPathEnabled || last >= size) {
+                continue;
+            }
+
+            Device device = deviceAddressArray[first];
+            if (!(device instanceof Memory) || !((Memory) device).isFastPathSafe() || isWatched(first, last)) {
+                continue;
+            }
+            boolean whole = true;
+            for (int i = first + 1; i <= last; i++) {
+                if (deviceAddressArray[i] != device) {
+                    whole = false;
+                    break;
+                }
+            }
+            if (!whole) {
+                continue;
+            }
+
+            Memory memory = (Memory) device;
+            byte[] backing = memory.getBackingArray();
+            if (backing == null) {
+                continue;
+            }
+            // Set the base before the page goes live, for a CPU that is running
+            pageBase[page] = first + this.startAddress - memory.getMemoryRange().startAddress();
+            readPages[page] = backing;
+            if (!memory.isReadOnly()) {
+                writePages[page] = backing;
             }
         }
+    }
 
+    /**
+     * @return true if a bus listener covers any address between the bus offsets
+     *         <code>first</code> and <code>last</code>.
+     */
+    private boolean isWatched(int first, int last) {
+        ListenerRange[] ranges = busListeners;
+        if (ranges == null) {
+            return false;
+        }
+        for (ListenerRange range : ranges) {
+            if (range.start - this.startAddress <= last && range.end - this.startAddress >= first) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tell <code>listener</code> about every read and write on the bus.
+     */
+    public void addBusListener(BusListener listener) {
+        try {
+            addBusListener(listener, this.startAddress, this.endAddress);
+        } catch (MemoryRangeException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Tell <code>listener</code> about reads and writes between <code>start</code>
+     * and <code>end</code>, inclusive. Only the pages in that range lose the
+     * direct memory fast path. This may be called while the CPU is running, in
+     * which case the listener sees accesses from the next instruction on.
+     *
+     * @throws MemoryRangeException if the range is not on the bus.
+     */
+    public synchronized void addBusListener(BusListener listener, int start, int end) throws MemoryRangeException {
+        if (start < this.startAddress || end > this.endAddress || start > end) {
+            throw new MemoryRangeException("Listener range " + String.format("$%04X-$%04X", start, end) +
+                                           " does not fall within the address range of the bus");
+        }
+
+        ListenerRange[] ranges = busListeners;
+        int n = ranges == null ? 0 : ranges.length;
+        ListenerRange[] newRanges = new ListenerRange[n + 1];
+        if (n > 0) {
+            System.arraycopy(ranges, 0, newRanges, 0, n);
+        }
+        newRanges[n] = new ListenerRange(listener, start, end);
+
+        // Publish the listener before taking its pages off the fast path
+        busListeners = newRanges;
+        updatePageTables(start - this.startAddress, end - this.startAddress);
+    }
+
+    /**
+     * Stop telling <code>listener</code> about bus accesses, over every range
+     * it was added for.
+     */
+    public synchronized void removeBusListener(BusListener listener) {
+        ListenerRange[] ranges = busListeners;
+        if (ranges == null) {
+            return;
+        }
+
+        List<ListenerRange> kept = new ArrayList<>();
+        List<ListenerRange> removed = new ArrayList<>();
+        for (ListenerRange range : ranges) {
+            if (range.listener == listener) {
+                removed.add(range);
+            } else {
+                kept.add(range);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+
+        busListeners = kept.isEmpty() ? null : kept.toArray(new ListenerRange[kept.size()]);
+        for (ListenerRange range : removed) {
+            updatePageTables(range.start - this.startAddress, range.end - this.startAddress);
+        }
+    }
+
+    private void fireRead(ListenerRange[] ranges, int address, int value) {
+        for (ListenerRange range : ranges) {
+            if (address >= range.start && address <= range.end) {
+                range.listener.read(address, value);
+            }
+        }
+    }
+
+    private void fireWrite(ListenerRange[] ranges, int address, int value) {
+        for (ListenerRange range : ranges) {
+            if (address >= range.start && address <= range.end) {
+                range.listener.write(address, value);
+            }
+        }
+    }
+
+    /**
+     * Turn the direct memory fast path on or off. With it off, every access
+     * goes through the owning device, which is handy when comparing or
+     * debugging device behavior.
+     */
+    public void setFastPathEnabled(boolean fastPathEnabled) {
+        this.fastPathEnabled = fastPathEnabled;
+        updatePageTables(0, deviceAddressArray.length - 1);
+    }
+
+    public boolean isFastPathEnabled() {
+        return fastPathEnabled;
     }
 
     /**
@@ -116,9 +354,20 @@ public class Bus {
             deviceMap.put(priority, deviceSet);
         }
 
+        if (devicePriorities.containsKey(device) || !deviceSet.add(device)) {
+            // Already on the bus, or another device at this priority has the same start address
+            return;
+        }
+
         device.setBus(this);
-        deviceSet.add(device);
-        buildDeviceAddressArray();
+        devicePriorities.put(device, priority);
+        sortedDevices = null;
+
+        // Only the device's own range can change hands
+        int first = firstOffset(device);
+        int last = lastOffset(device);
+        mapDevice(device, priority, first, last);
+        updatePageTables(first, last);
     }
 
     /**
@@ -138,15 +387,38 @@ public class Bus {
      * @param device Device to remove
      */
     public void removeDevice(Device device) {
-        for (SortedSet<Device> deviceSet : deviceMap.values()) {
-            deviceSet.remove(device);
+        Integer priority = devicePriorities.remove(device);
+        if (priority == null) {
+            return;
         }
-        buildDeviceAddressArray();
+        deviceMap.get(priority).remove(device);
+        sortedDevices = null;
+        clearIrq(device);
+
+        // Free the addresses the device owned, then let whatever else overlaps
+        // the range claim them back.
+        int first = firstOffset(device);
+        int last = lastOffset(device);
+        for (int offset = first; offset <= last; offset++) {
+            if (deviceAddressArray[offset] == device) {
+                deviceAddressArray[offset] = null;
+            }
+        }
+        for (Map.Entry<Device, Integer> entry : devicePriorities.entrySet()) {
+            Device other = entry.getKey();
+            int otherFirst = Math.max(first, firstOffset(other));
+            int otherLast = Math.min(last, lastOffset(other));
+            if (otherFirst <= otherLast) {
+                mapDevice(other, entry.getValue(), otherFirst, otherLast);
+            }
+        }
+        updatePageTables(first, last);
     }
 
     public void addCpu(Cpu cpu) {
         this.cpu = cpu;
         cpu.setBus(this);
+        cpu.setIrqLine(!irqSources.isEmpty());
     }
 
     /**
@@ -155,10 +427,6 @@ public class Bus {
      * device.
      */
     public boolean isComplete() {
-        if (deviceAddressArray == null) {
-            buildDeviceAddressArray();
-        }
-
         for (int address = startAddress; address <= endAddress; ++address) {
             if (deviceAddressArray[address - startAddress] == null) {
                 return false;
@@ -169,28 +437,97 @@ public class Bus {
     }
 
     public int read(int address) throws MemoryAccessException {
-        Device d = deviceAddressArray[address - this.startAddress];
+        int offset = address - this.startAddress;
+        byte[] page = readPages[offset >> PAGE_SHIFT];
+        if (page != null) {
+            return page[pageBase[offset >> PAGE_SHIFT] + (offset & PAGE_MASK)] & 0xff;
+        }
+
+        Device d = deviceAddressArray[offset];
         if (d != null) {
             MemoryRange range = d.getMemoryRange();
             int devAddr = address - range.startAddress();
-            return d.read(devAddr) & 0xff;
+            int value = d.read(devAddr) & 0xff;
+            ListenerRange[] ranges = busListeners;
+            if (ranges != null) {
+                fireRead(ranges, address, value);
+            }
+            return value;
         }
 
         throw new MemoryAccessException("Bus read failed. No device at address " + String.format("$%04X", address));
     }
 
-    public void write(int address, int value) throws MemoryAccessException {
+    /**
+     * Read a byte without triggering any device side effects. Debuggers and UI
+     * components should use this rather than {@link #read(int)}.
+     */
+    public int peek(int address) throws MemoryAccessException {
         Device d = deviceAddressArray[address - this.startAddress];
+        if (d != null) {
+            MemoryRange range = d.getMemoryRange();
+            int devAddr = address - range.startAddress();
+            return d.peek(devAddr) & 0xff;
+        }
+
+        throw new MemoryAccessException("Bus peek failed. No device at address " + String.format("$%04X", address));
+    }
+
+    /**
+     * Copy <code>dst.length</code> bytes starting at <code>start</code> into <code>dst</code>,
+     * without triggering any device side effects. Addresses with no device read as 0.
+     */
+    public void peek(int start, byte[] dst) throws MemoryAccessException {
+        if (start < this.startAddress || start + dst.length - 1 > this.endAddress) {
+            throw new MemoryAccessException("Bus peek failed. Range is outside the bus: " +
+                                            String.format("$%04X+%d", start, dst.length));
+        }
+
+        int i = 0;
+        while (i < dst.length) {
+            int address = start + i;
+            Device d = deviceAddressArray[address - this.startAddress];
+            if (d == null) {
+                dst[i++] = 0;
+                continue;
+            }
+            // Hand the whole run of addresses mapped to this device over in one go
+            int length = 1;
+            while (i + length < dst.length && deviceAddressArray[address + length - this.startAddress] == d) {
+                length++;
+            }
+            d.peek(address - d.getMemoryRange().startAddress(), dst, i, length);
+            i += length;
+        }
+    }
+
+    public void write(int address, int value) throws MemoryAccessException {
+        int offset = address - this.startAddress;
+        byte[] page = writePages[offset >> PAGE_SHIFT];
+        if (page != null) {
+            page[pageBase[offset >> PAGE_SHIFT] + (offset & PAGE_MASK)] = (byte) value;
+            return;
+        }
+
+        Device d = deviceAddressArray[offset];
         if (d != null) {
             MemoryRange range = d.getMemoryRange();
             int devAddr = address - range.startAddress();
             d.write(devAddr, value);
+            ListenerRange[] ranges = busListeners;
+            if (ranges != null) {
+                fireWrite(ranges, address, value);
+            }
             return;
         }
 
         throw new MemoryAccessException("Bus write failed. No device at address " + String.format("$%04X", address));
     }
 
+    /**
+     * Request a single interrupt. The request is latched by the CPU until it
+     * is taken.
+     */
     public void assertIrq() {
         if (cpu != null) {
             cpu.assertIrq();
@@ -203,6 +540,36 @@ public class Bus {
         }
     }
 
+    /**
+     * Hold the IRQ line low on behalf of a device, until it calls
+     * {@link #clearIrq(Device)}. The line is a wired-OR, so it stays low
+     * while any device is holding it.
+     */
+    public void assertIrq(Device source) {
+        if (!irqSources.contains(source)) {
+            irqSources.add(source);
+            if (cpu != null) {
+                cpu.setIrqLine(true);
+            }
+        }
+    }
+
+    /**
+     * Release a device's hold on the IRQ line. Other devices are unaffected.
+     */
+    public void clearIrq(Device source) {
+        if (irqSources.remove(source) && irqSources.isEmpty() && cpu != null) {
+            cpu.setIrqLine(false);
+        }
+    }
+
+    /**
+     * @return true if any device is holding the IRQ line low.
+     */
+    public boolean isIrqLineAsserted() {
+        return !irqSources.isEmpty();
+    }
+
     public void assertNmi() {
         if (cpu != null) {
             cpu.assertNmi();
@@ -215,27 +582,57 @@ public class Bus {
         }
     }
 
+    /**
+     * @return All devices on the bus, ordered by start address. The set is
+     *         cached between changes to the bus, and cannot be modified.
+     */
     public SortedSet<Device> getDevices() {
-        // create an ordered set of devices, ordered by device priorities
-        SortedSet<Device> devices = new TreeSet<>();
+        if (sortedDevices == null) {
+            SortedSet<Device> devices = new TreeSet<>();
 
-        List<Integer> priorities = new ArrayList<>(deviceMap.keySet());
-        Collections.sort(priorities);
+            List<Integer> priorities = new ArrayList<>(deviceMap.keySet());
+            Collections.sort(priorities);
 
-        for (int priority : priorities) {
-            SortedSet<Device> deviceSet = deviceMap.get(priority);
-            for (Device device : deviceSet) {
-                devices.add(device);
+            for (int priority : priorities) {
+                devices.addAll(deviceMap.get(priority));
             }
+
+            sortedDevices = Collections.unmodifiableSortedSet(devices);
         }
 
-        return devices;
+        return sortedDevices;
     }
 
     public Cpu getCpu() {
         return cpu;
     }
 
+    /**
+     * Shut down every device on the bus, so that any buffered data is
+     * written back. Called when the machine is finished with.
+     */
+    public void shutdown() {
+        for (Device device : getDevices()) {
+            device.shutdown();
+        }
+    }
+
+    /**
+     * @return The scheduler devices on this bus use to run events at a given
+     *         clock cycle.
+     */
+    public EventScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return The number of clock cycles the CPU has executed, or 0 if there is
+     *         no CPU on the bus. Devices use this as their time base.
+     */
+    public long getCycleCount() {
+        return cpu == null ? 0 : cpu.getCycleCount();
+    }
+
     public void loadProgram(int... program) throws MemoryAccessException {
         int address = getCpu().getProgramCounter();
         int i = 0;
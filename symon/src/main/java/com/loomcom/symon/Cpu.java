@@ -28,6 +28,10 @@ import com.loomcom.symon.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This class provides a simulation of the MOS 6502 CPU's state machine.
@@ -60,7 +64,19 @@ public class Cpu implements InstructionTable {
 
     public static final long DEFAULT_CLOCK_PERIOD_IN_NS = 1000;
 
-    /* Simulated clock speed (default is 1MHz) */
+    /* Clock cycles taken to respond to an IRQ or NMI */
+    private static final int INTERRUPT_CLOCKS = 7;
+
+    /* Wall-clock time covered by one batch of throttled instructions */
+    private static final long THROTTLE_INTERVAL_NS = 1000000;
+
+    /* If the simulation falls further behind the wall clock than this, don't try to catch up */
+    private static final long MAX_THROTTLE_LAG_NS = 50000000;
+
+    /* System property that selects the direct dispatch core by default */
+    public static final String DIRECT_DISPATCH_PROPERTY = "symon.directDispatch";
+
+    /* Simulated clock speed (default is 1MHz). A period of 0 means run unthrottled. */
     private long clockPeriodInNs = DEFAULT_CLOCK_PERIOD_IN_NS;
 
     /* Simulated behavior */
@@ -69,11 +85,25 @@ public class Cpu implements InstructionTable {
     /* The Bus */
     private Bus bus;
 
+    /* The bus's device event scheduler */
+    private EventScheduler scheduler;
+
+    // Level of the IRQ line driven by devices through the bus
+    private boolean irqLine;
+
     /* The CPU state */
     private final CpuState state = new CpuState();
 
-    /* start time of op execution, needed for speed simulation */
-    private long opBeginTime;
+    /* Execute with the single-dispatch core rather than decoding the addressing mode first */
+    private boolean directDispatch = Boolean.getBoolean(DIRECT_DISPATCH_PROPERTY);
+
+    /* Clock cycles per throttling batch, and where the current batch started */
+    private long throttleBatchCycles = THROTTLE_INTERVAL_NS / DEFAULT_CLOCK_PERIOD_IN_NS;
+    private long throttleStartCycle;
+    private long throttleStartTime;
+
+    /* Registered listeners, or null if there are none */
+    private CpuListener[] listeners;
 
     /**
      * Construct a new CPU.
@@ -91,6 +121,7 @@ public class Cpu implements InstructionTable {
      */
     public void setBus(Bus bus) {
         this.bus = bus;
+        this.scheduler = bus.getScheduler();
     }
 
     /**
@@ -104,6 +135,22 @@ public class Cpu implements InstructionTable {
         this.behavior = behavior;
     }
 
+    /**
+     * Choose between the two execution cores. Both behave identically; the
+     * direct dispatch core fetches operands per opcode instead of decoding the
+     * addressing mode up front, which is cheaper per instruction. The default
+     * comes from the <code>symon.directDispatch</code> system property.
+     *
+     * @param directDispatch true to use the direct dispatch core.
+     */
+    public void setDirectDispatch(boolean directDispatch) {
+        this.directDispatch = directDispatch;
+    }
+
+    public boolean isDirectDispatch() {
+        return directDispatch;
+    }
+
     /**
      * Reset the CPU to known initial values.
      */
@@ -133,15 +180,14 @@ public class Cpu implements InstructionTable {
         // Clear illegal opcode trap.
         state.opTrap = false;
 
-        // Reset step counter
+        // Reset step counter. The cycle counter keeps running, just like the
+        // system clock on real hardware, so device timing stays consistent.
         state.stepCounter = 0L;
 
         // Reset registers.
         state.a = 0;
         state.x = 0;
         state.y = 0;
-
-        peekAhead();
     }
 
     public void step(int num) throws MemoryAccessException {
@@ -154,8 +200,6 @@ public class Cpu implements InstructionTable {
      * Performs an individual instruction cycle.
      */
     public void step() throws MemoryAccessException {
-        opBeginTime = System.nanoTime();
-
         // Store the address from which the IR was read, for debugging
         state.lastPc = state.pc;
 
@@ -163,10 +207,90 @@ public class Cpu implements InstructionTable {
         // This will set the PC and jump to the interrupt vector.
         if (state.nmiAsserted) {
             handleNmi();
-        } else if (state.irqAsserted && !getIrqDisableFlag()) {
+            state.cycleCounter += INTERRUPT_CLOCKS;
+            if (listeners != null) {
+                fireInterrupt(true);
+            }
+        } else if ((state.irqAsserted || irqLine) && !getIrqDisableFlag()) {
             handleIrq(state.pc);
+            state.cycleCounter += INTERRUPT_CLOCKS;
+            if (listeners != null) {
+                fireInterrupt(false);
+            }
         }
 
+        if (listeners != null) {
+            fireBeforeExecute();
+        }
+
+        if (directDispatch) {
+            executeDirect();
+        } else {
+            executeDecoded();
+        }
+
+        state.cycleCounter += Cpu.instructionClocks[state.ir];
+
+        // Run any device events that have come due
+        if (scheduler != null && state.cycleCounter >= scheduler.getNextEventCycle()) {
+            scheduler.runUntil(state.cycleCounter);
+        }
+
+        if (listeners != null) {
+            fireAfterExecute();
+        }
+
+        if (clockPeriodInNs > 0) {
+            throttle();
+        }
+    }
+
+    /**
+     * Register a listener to be told about every instruction and interrupt.
+     * Listeners should be added and removed while the CPU is not running.
+     */
+    public void addCpuListener(CpuListener listener) {
+        if (listeners == null) {
+            listeners = new CpuListener[] {listener};
+        } else {
+            CpuListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+            newListeners[listeners.length] = listener;
+            listeners = newListeners;
+        }
+    }
+
+    public void removeCpuListener(CpuListener listener) {
+        if (listeners == null) {
+            return;
+        }
+        List<CpuListener> remaining = new ArrayList<>(Arrays.asList(listeners));
+        remaining.remove(listener);
+        listeners = remaining.isEmpty() ? null : remaining.toArray(new CpuListener[remaining.size()]);
+    }
+
+    private void fireBeforeExecute() {
+        for (CpuListener listener : listeners) {
+            listener.beforeExecute(state);
+        }
+    }
+
+    private void fireAfterExecute() {
+        for (CpuListener listener : listeners) {
+            listener.afterExecute(state);
+        }
+    }
+
+    private void fireInterrupt(boolean nmi) {
+        for (CpuListener listener : listeners) {
+            listener.interrupt(state, nmi);
+        }
+    }
+
+    /**
+     * Fetch and execute one instruction by first decoding its addressing mode
+     * from the bits of the opcode, then dispatching on the opcode itself.
+     */
+    private void executeDecoded() throws MemoryAccessException {
         // Fetch memory location for this instruction.
         state.ir = bus.read(state.pc);
         int irAddressMode = (state.ir >> 2) & 0x07;  // Bits 3-5 of IR:  [ | | |X|X|X| | ]
@@ -217,6 +341,10 @@ public class Cpu implements InstructionTable {
                         } else {
                             effectiveAddress = xAddress(state.args[0], state.args[1]);
                         }
+                        // Only LDX and LDY pay for crossing a page; the rest are read-modify-write
+                        if (state.ir == 0xbc || state.ir == 0xbe) {
+                            checkPageCross(state.args[1], effectiveAddress);
+                        }
                         break;
                 }
                 break;
@@ -239,15 +367,24 @@ public class Cpu implements InstructionTable {
                         tmp = Utils.address(bus.read(state.args[0]),
                                       bus.read((state.args[0] + 1) & 0xff));
                         effectiveAddress = (tmp + state.y) & 0xffff;
+                        if (state.ir != 0x91) {
+                            checkPageCross(tmp >> 8, effectiveAddress);
+                        }
                         break;
                     case 5: // Zero Page,X
                         effectiveAddress = zpxAddress(state.args[0]);
                         break;
                     case 6: // Absolute, Y
                         effectiveAddress = yAddress(state.args[0], state.args[1]);
+                        if (state.ir != 0x99) {
+                            checkPageCross(state.args[1], effectiveAddress);
+                        }
                         break;
                     case 7: // Absolute, X
                         effectiveAddress = xAddress(state.args[0], state.args[1]);
+                        if (state.ir != 0x9d) {
+                            checkPageCross(state.args[1], effectiveAddress);
+                        }
                         break;
                 }
                 break;
@@ -266,7 +403,7 @@ public class Cpu implements InstructionTable {
                 break;
             case 0x10: // BPL - Branch if Positive - Relative
                 if (!getNegativeFlag()) {
-                    state.pc = relAddress(state.args[0]);
+                    branch();
                 }
                 break;
             case 0x18: // CLC - Clear Carry Flag - Implied
@@ -282,7 +419,7 @@ public class Cpu implements InstructionTable {
                 break;
             case 0x30: // BMI - Branch if Minus - Relative
                 if (getNegativeFlag()) {
-                    state.pc = relAddress(state.args[0]);
+                    branch();
                 }
                 break;
             case 0x38: // SEC - Set Carry Flag - Implied
@@ -299,7 +436,7 @@ public class Cpu implements InstructionTable {
                 break;
             case 0x50: // BVC - Branch if Overflow Clear - Relative
                 if (!getOverflowFlag()) {
-                    state.pc = relAddress(state.args[0]);
+                    branch();
                 }
                 break;
             case 0x58: // CLI - Clear Interrupt Disable - Implied
@@ -316,7 +453,7 @@ public class Cpu implements InstructionTable {
                 break;
             case 0x70: // BVS - Branch if Overflow Set - Relative
                 if (getOverflowFlag()) {
-                    state.pc = relAddress(state.args[0]);
+                    branch();
                 }
                 break;
             case 0x78: // SEI - Set Interrupt Disable - Implied
@@ -332,7 +469,7 @@ public class Cpu implements InstructionTable {
                 break;
             case 0x90: // BCC - Branch if Carry Clear - Relative
                 if (!getCarryFlag()) {
-                    state.pc = relAddress(state.args[0]);
+                    branch();
                 }
                 break;
             case 0x98: // TYA - Transfer Y to Accumulator - Implied
@@ -352,7 +489,7 @@ public class Cpu implements InstructionTable {
                 break;
             case 0xb0: // BCS - Branch if Carry Set - Relative
                 if (getCarryFlag()) {
-                    state.pc = relAddress(state.args[0]);
+                    branch();
                 }
                 break;
             case 0xb8: // CLV - Clear Overflow Flag - Implied
@@ -372,7 +509,7 @@ public class Cpu implements InstructionTable {
                 break;
             case 0xd0: // BNE - Branch if Not Equal to Zero - Relative
                 if (!getZeroFlag()) {
-                    state.pc = relAddress(state.args[0]);
+                    branch();
                 }
                 break;
             case 0xd8: // CLD - Clear Decimal Mode - Implied
@@ -387,7 +524,7 @@ public class Cpu implements InstructionTable {
                 break;
             case 0xf0: // BEQ - Branch if Equal to Zero - Relative
                 if (getZeroFlag()) {
-                    state.pc = relAddress(state.args[0]);
+                    branch();
                 }
                 break;
             case 0xf8: // SED - Set Decimal Flag - Implied
@@ -726,19 +863,727 @@ public class Cpu implements InstructionTable {
                 setOpTrap();
                 break;
         }
+    }
+
+    /**
+     * Fetch and execute one instruction with a single dispatch on the opcode.
+     * Each case fetches its own operands through the addressing mode helpers
+     * below, so there is no separate decode pass. Operands are still recorded
+     * in <code>state.args</code> for the trace log and disassembly.
+     */
+    private void executeDirect() throws MemoryAccessException {
+        state.ir = bus.read(state.pc);
+        incrementPC();
+
+        state.opTrap = false;
+        state.instSize = Cpu.instructionSizes[state.ir];
+        state.stepCounter++;
+
+        int ea;
+
+        switch (state.ir) {
+            case 0x00: // BRK - Implied
+                handleBrk(state.pc + 1);
+                break;
+            case 0x01: // ORA - (Zero Page,X)
+                ora(bus.read(fetchXinAddress()));
+                break;
+            case 0x05: // ORA - Zero Page
+                ora(bus.read(fetchZpgAddress()));
+                break;
+            case 0x06: // ASL - Zero Page
+                aslMemory(fetchZpgAddress());
+                break;
+            case 0x08: // PHP - Implied
+                // Break flag is always set in the stack value.
+                stackPush(state.getStatusFlag() | 0x10);
+                break;
+            case 0x09: // ORA - #Immediate
+                ora(fetchImmediate());
+                break;
+            case 0x0a: // ASL - Accumulator
+                state.a = asl(state.a);
+                setArithmeticFlags(state.a);
+                break;
+            case 0x0d: // ORA - Absolute
+                ora(bus.read(fetchAbsAddress()));
+                break;
+            case 0x0e: // ASL - Absolute
+                aslMemory(fetchAbsAddress());
+                break;
+
+            case 0x10: // BPL - Relative
+                fetchImmediate();
+                if (!state.negativeFlag) {
+                    branch();
+                }
+                break;
+            case 0x11: // ORA - (Zero Page),Y
+                ora(bus.read(fetchInyAddress(true)));
+                break;
+            case 0x15: // ORA - Zero Page,X
+                ora(bus.read(fetchZpxAddress()));
+                break;
+            case 0x16: // ASL - Zero Page,X
+                aslMemory(fetchZpxAddress());
+                break;
+            case 0x18: // CLC - Implied
+                clearCarryFlag();
+                break;
+            case 0x19: // ORA - Absolute,Y
+                ora(bus.read(fetchAbyAddress(true)));
+                break;
+            case 0x1d: // ORA - Absolute,X
+                ora(bus.read(fetchAbxAddress(true)));
+                break;
+            case 0x1e: // ASL - Absolute,X
+                aslMemory(fetchAbxAddress(false));
+                break;
+
+            case 0x20: // JSR - Absolute
+                ea = fetchAbsAddress();
+                stackPush((state.pc - 1 >> 8) & 0xff); // PC high byte
+                stackPush(state.pc - 1 & 0xff);        // PC low byte
+                state.pc = ea;
+                break;
+            case 0x21: // AND - (Zero Page,X)
+                and(bus.read(fetchXinAddress()));
+                break;
+            case 0x24: // BIT - Zero Page
+                bit(bus.read(fetchZpgAddress()));
+                break;
+            case 0x25: // AND - Zero Page
+                and(bus.read(fetchZpgAddress()));
+                break;
+            case 0x26: // ROL - Zero Page
+                rolMemory(fetchZpgAddress());
+                break;
+            case 0x28: // PLP - Implied
+                setProcessorStatus(stackPop());
+                break;
+            case 0x29: // AND - #Immediate
+                and(fetchImmediate());
+                break;
+            case 0x2a: // ROL - Accumulator
+                state.a = rol(state.a);
+                setArithmeticFlags(state.a);
+                break;
+            case 0x2c: // BIT - Absolute
+                bit(bus.read(fetchAbsAddress()));
+                break;
+            case 0x2d: // AND - Absolute
+                and(bus.read(fetchAbsAddress()));
+                break;
+            case 0x2e: // ROL - Absolute
+                rolMemory(fetchAbsAddress());
+                break;
+
+            case 0x30: // BMI - Relative
+                fetchImmediate();
+                if (state.negativeFlag) {
+                    branch();
+                }
+                break;
+            case 0x31: // AND - (Zero Page),Y
+                and(bus.read(fetchInyAddress(true)));
+                break;
+            case 0x35: // AND - Zero Page,X
+                and(bus.read(fetchZpxAddress()));
+                break;
+            case 0x36: // ROL - Zero Page,X
+                rolMemory(fetchZpxAddress());
+                break;
+            case 0x38: // SEC - Implied
+                setCarryFlag();
+                break;
+            case 0x39: // AND - Absolute,Y
+                and(bus.read(fetchAbyAddress(true)));
+                break;
+            case 0x3d: // AND - Absolute,X
+                and(bus.read(fetchAbxAddress(true)));
+                break;
+            case 0x3e: // ROL - Absolute,X
+                rolMemory(fetchAbxAddress(false));
+                break;
+
+            case 0x40: // RTI - Implied
+                setProcessorStatus(stackPop());
+                ea = stackPop();
+                setProgramCounter(Utils.address(ea, stackPop()));
+                break;
+            case 0x41: // EOR - (Zero Page,X)
+                eor(bus.read(fetchXinAddress()));
+                break;
+            case 0x45: // EOR - Zero Page
+                eor(bus.read(fetchZpgAddress()));
+                break;
+            case 0x46: // LSR - Zero Page
+                lsrMemory(fetchZpgAddress());
+                break;
+            case 0x48: // PHA - Implied
+                stackPush(state.a);
+                break;
+            case 0x49: // EOR - #Immediate
+                eor(fetchImmediate());
+                break;
+            case 0x4a: // LSR - Accumulator
+                state.a = lsr(state.a);
+                setArithmeticFlags(state.a);
+                break;
+            case 0x4c: // JMP - Absolute
+                state.pc = fetchAbsAddress();
+                break;
+            case 0x4d: // EOR - Absolute
+                eor(bus.read(fetchAbsAddress()));
+                break;
+            case 0x4e: // LSR - Absolute
+                lsrMemory(fetchAbsAddress());
+                break;
+
+            case 0x50: // BVC - Relative
+                fetchImmediate();
+                if (!state.overflowFlag) {
+                    branch();
+                }
+                break;
+            case 0x51: // EOR - (Zero Page),Y
+                eor(bus.read(fetchInyAddress(true)));
+                break;
+            case 0x55: // EOR - Zero Page,X
+                eor(bus.read(fetchZpxAddress()));
+                break;
+            case 0x56: // LSR - Zero Page,X
+                lsrMemory(fetchZpxAddress());
+                break;
+            case 0x58: // CLI - Implied
+                clearIrqDisableFlag();
+                break;
+            case 0x59: // EOR - Absolute,Y
+                eor(bus.read(fetchAbyAddress(true)));
+                break;
+            case 0x5d: // EOR - Absolute,X
+                eor(bus.read(fetchAbxAddress(true)));
+                break;
+            case 0x5e: // LSR - Absolute,X
+                lsrMemory(fetchAbxAddress(false));
+                break;
+
+            case 0x60: // RTS - Implied
+                ea = stackPop();
+                setProgramCounter((Utils.address(ea, stackPop()) + 1) & 0xffff);
+                break;
+            case 0x61: // ADC - (Zero Page,X)
+                addWithCarry(bus.read(fetchXinAddress()));
+                break;
+            case 0x65: // ADC - Zero Page
+                addWithCarry(bus.read(fetchZpgAddress()));
+                break;
+            case 0x66: // ROR - Zero Page
+                rorMemory(fetchZpgAddress());
+                break;
+            case 0x68: // PLA - Implied
+                state.a = stackPop();
+                setArithmeticFlags(state.a);
+                break;
+            case 0x69: // ADC - #Immediate
+                addWithCarry(fetchImmediate());
+                break;
+            case 0x6a: // ROR - Accumulator
+                state.a = ror(state.a);
+                setArithmeticFlags(state.a);
+                break;
+            case 0x6c: // JMP - Indirect
+                ea = fetchAbsAddress(); // Address of low byte
+                if (state.args[0] == 0xff &&
+                    (behavior == CpuBehavior.NMOS_WITH_INDIRECT_JMP_BUG ||
+                     behavior == CpuBehavior.NMOS_WITH_ROR_BUG)) {
+                    state.pc = Utils.address(bus.read(ea), bus.read(Utils.address(0x00, state.args[1])));
+                } else {
+                    state.pc = Utils.address(bus.read(ea), bus.read(ea + 1));
+                }
+                break;
+            case 0x6d: // ADC - Absolute
+                addWithCarry(bus.read(fetchAbsAddress()));
+                break;
+            case 0x6e: // ROR - Absolute
+                rorMemory(fetchAbsAddress());
+                break;
+
+            case 0x70: // BVS - Relative
+                fetchImmediate();
+                if (state.overflowFlag) {
+                    branch();
+                }
+                break;
+            case 0x71: // ADC - (Zero Page),Y
+                addWithCarry(bus.read(fetchInyAddress(true)));
+                break;
+            case 0x75: // ADC - Zero Page,X
+                addWithCarry(bus.read(fetchZpxAddress()));
+                break;
+            case 0x76: // ROR - Zero Page,X
+                rorMemory(fetchZpxAddress());
+                break;
+            case 0x78: // SEI - Implied
+                setIrqDisableFlag();
+                break;
+            case 0x79: // ADC - Absolute,Y
+                addWithCarry(bus.read(fetchAbyAddress(true)));
+                break;
+            case 0x7d: // ADC - Absolute,X
+                addWithCarry(bus.read(fetchAbxAddress(true)));
+                break;
+            case 0x7e: // ROR - Absolute,X
+                rorMemory(fetchAbxAddress(false));
+                break;
+
+            case 0x81: // STA - (Zero Page,X)
+                bus.write(fetchXinAddress(), state.a);
+                break;
+            case 0x84: // STY - Zero Page
+                bus.write(fetchZpgAddress(), state.y);
+                break;
+            case 0x85: // STA - Zero Page
+                bus.write(fetchZpgAddress(), state.a);
+                break;
+            case 0x86: // STX - Zero Page
+                bus.write(fetchZpgAddress(), state.x);
+                break;
+            case 0x88: // DEY - Implied
+                state.y = --state.y & 0xff;
+                setArithmeticFlags(state.y);
+                break;
+            case 0x8a: // TXA - Implied
+                state.a = state.x;
+                setArithmeticFlags(state.a);
+                break;
+            case 0x8c: // STY - Absolute
+                bus.write(fetchAbsAddress(), state.y);
+                break;
+            case 0x8d: // STA - Absolute
+                bus.write(fetchAbsAddress(), state.a);
+                break;
+            case 0x8e: // STX - Absolute
+                bus.write(fetchAbsAddress(), state.x);
+                break;
+
+            case 0x90: // BCC - Relative
+                fetchImmediate();
+                if (!state.carryFlag) {
+                    branch();
+                }
+                break;
+            case 0x91: // STA - (Zero Page),Y
+                bus.write(fetchInyAddress(false), state.a);
+                break;
+            case 0x94: // STY - Zero Page,X
+                bus.write(fetchZpxAddress(), state.y);
+                break;
+            case 0x95: // STA - Zero Page,X
+                bus.write(fetchZpxAddress(), state.a);
+                break;
+            case 0x96: // STX - Zero Page,Y
+                bus.write(fetchZpyAddress(), state.x);
+                break;
+            case 0x98: // TYA - Implied
+                state.a = state.y;
+                setArithmeticFlags(state.a);
+                break;
+            case 0x99: // STA - Absolute,Y
+                bus.write(fetchAbyAddress(false), state.a);
+                break;
+            case 0x9a: // TXS - Implied
+                setStackPointer(state.x);
+                break;
+            case 0x9d: // STA - Absolute,X
+                bus.write(fetchAbxAddress(false), state.a);
+                break;
+
+            case 0xa0: // LDY - #Immediate
+                state.y = fetchImmediate();
+                setArithmeticFlags(state.y);
+                break;
+            case 0xa1: // LDA - (Zero Page,X)
+                lda(bus.read(fetchXinAddress()));
+                break;
+            case 0xa2: // LDX - #Immediate
+                state.x = fetchImmediate();
+                setArithmeticFlags(state.x);
+                break;
+            case 0xa4: // LDY - Zero Page
+                ldy(bus.read(fetchZpgAddress()));
+                break;
+            case 0xa5: // LDA - Zero Page
+                lda(bus.read(fetchZpgAddress()));
+                break;
+            case 0xa6: // LDX - Zero Page
+                ldx(bus.read(fetchZpgAddress()));
+                break;
+            case 0xa8: // TAY - Implied
+                state.y = state.a;
+                setArithmeticFlags(state.y);
+                break;
+            case 0xa9: // LDA - #Immediate
+                lda(fetchImmediate());
+                break;
+            case 0xaa: // TAX - Implied
+                state.x = state.a;
+                setArithmeticFlags(state.x);
+                break;
+            case 0xac: // LDY - Absolute
+                ldy(bus.read(fetchAbsAddress()));
+                break;
+            case 0xad: // LDA - Absolute
+                lda(bus.read(fetchAbsAddress()));
+                break;
+            case 0xae: // LDX - Absolute
+                ldx(bus.read(fetchAbsAddress()));
+                break;
+
+            case 0xb0: // BCS - Relative
+                fetchImmediate();
+                if (state.carryFlag) {
+                    branch();
+                }
+                break;
+            case 0xb1: // LDA - (Zero Page),Y
+                lda(bus.read(fetchInyAddress(true)));
+                break;
+            case 0xb4: // LDY - Zero Page,X
+                ldy(bus.read(fetchZpxAddress()));
+                break;
+            case 0xb5: // LDA - Zero Page,X
+                lda(bus.read(fetchZpxAddress()));
+                break;
+            case 0xb6: // LDX - Zero Page,Y
+                ldx(bus.read(fetchZpyAddress()));
+                break;
+            case 0xb8: // CLV - Implied
+                clearOverflowFlag();
+                break;
+            case 0xb9: // LDA - Absolute,Y
+                lda(bus.read(fetchAbyAddress(true)));
+                break;
+            case 0xba: // TSX - Implied
+                state.x = getStackPointer();
+                setArithmeticFlags(state.x);
+                break;
+            case 0xbc: // LDY - Absolute,X
+                ldy(bus.read(fetchAbxAddress(true)));
+                break;
+            case 0xbd: // LDA - Absolute,X
+                lda(bus.read(fetchAbxAddress(true)));
+                break;
+            case 0xbe: // LDX - Absolute,Y
+                ldx(bus.read(fetchAbyAddress(true)));
+                break;
+
+            case 0xc0: // CPY - #Immediate
+                cmp(state.y, fetchImmediate());
+                break;
+            case 0xc1: // CMP - (Zero Page,X)
+                cmp(state.a, bus.read(fetchXinAddress()));
+                break;
+            case 0xc4: // CPY - Zero Page
+                cmp(state.y, bus.read(fetchZpgAddress()));
+                break;
+            case 0xc5: // CMP - Zero Page
+                cmp(state.a, bus.read(fetchZpgAddress()));
+                break;
+            case 0xc6: // DEC - Zero Page
+                decMemory(fetchZpgAddress());
+                break;
+            case 0xc8: // INY - Implied
+                state.y = ++state.y & 0xff;
+                setArithmeticFlags(state.y);
+                break;
+            case 0xc9: // CMP - #Immediate
+                cmp(state.a, fetchImmediate());
+                break;
+            case 0xca: // DEX - Implied
+                state.x = --state.x & 0xff;
+                setArithmeticFlags(state.x);
+                break;
+            case 0xcc: // CPY - Absolute
+                cmp(state.y, bus.read(fetchAbsAddress()));
+                break;
+            case 0xcd: // CMP - Absolute
+                cmp(state.a, bus.read(fetchAbsAddress()));
+                break;
+            case 0xce: // DEC - Absolute
+                decMemory(fetchAbsAddress());
+                break;
+
+            case 0xd0: // BNE - Relative
+                fetchImmediate();
+                if (!state.zeroFlag) {
+                    branch();
+                }
+                break;
+            case 0xd1: // CMP - (Zero Page),Y
+                cmp(state.a, bus.read(fetchInyAddress(true)));
+                break;
+            case 0xd5: // CMP - Zero Page,X
+                cmp(state.a, bus.read(fetchZpxAddress()));
+                break;
+            case 0xd6: // DEC - Zero Page,X
+                decMemory(fetchZpxAddress());
+                break;
+            case 0xd8: // CLD - Implied
+                clearDecimalModeFlag();
+                break;
+            case 0xd9: // CMP - Absolute,Y
+                cmp(state.a, bus.read(fetchAbyAddress(true)));
+                break;
+            case 0xdd: // CMP - Absolute,X
+                cmp(state.a, bus.read(fetchAbxAddress(true)));
+                break;
+            case 0xde: // DEC - Absolute,X
+                decMemory(fetchAbxAddress(false));
+                break;
+
+            case 0xe0: // CPX - #Immediate
+                cmp(state.x, fetchImmediate());
+                break;
+            case 0xe1: // SBC - (Zero Page,X)
+                subtractWithCarry(bus.read(fetchXinAddress()));
+                break;
+            case 0xe4: // CPX - Zero Page
+                cmp(state.x, bus.read(fetchZpgAddress()));
+                break;
+            case 0xe5: // SBC - Zero Page
+                subtractWithCarry(bus.read(fetchZpgAddress()));
+                break;
+            case 0xe6: // INC - Zero Page
+                incMemory(fetchZpgAddress());
+                break;
+            case 0xe8: // INX - Implied
+                state.x = ++state.x & 0xff;
+                setArithmeticFlags(state.x);
+                break;
+            case 0xe9: // SBC - #Immediate
+                subtractWithCarry(fetchImmediate());
+                break;
+            case 0xea: // NOP
+                break;
+            case 0xec: // CPX - Absolute
+                cmp(state.x, bus.read(fetchAbsAddress()));
+                break;
+            case 0xed: // SBC - Absolute
+                subtractWithCarry(bus.read(fetchAbsAddress()));
+                break;
+            case 0xee: // INC - Absolute
+                incMemory(fetchAbsAddress());
+                break;
+
+            case 0xf0: // BEQ - Relative
+                fetchImmediate();
+                if (state.zeroFlag) {
+                    branch();
+                }
+                break;
+            case 0xf1: // SBC - (Zero Page),Y
+                subtractWithCarry(bus.read(fetchInyAddress(true)));
+                break;
+            case 0xf5: // SBC - Zero Page,X
+                subtractWithCarry(bus.read(fetchZpxAddress()));
+                break;
+            case 0xf6: // INC - Zero Page,X
+                incMemory(fetchZpxAddress());
+                break;
+            case 0xf8: // SED - Implied
+                setDecimalModeFlag();
+                break;
+            case 0xf9: // SBC - Absolute,Y
+                subtractWithCarry(bus.read(fetchAbyAddress(true)));
+                break;
+            case 0xfd: // SBC - Absolute,X
+                subtractWithCarry(bus.read(fetchAbxAddress(true)));
+                break;
+            case 0xfe: // INC - Absolute,X
+                incMemory(fetchAbxAddress(false));
+                break;
+
+            /** Unimplemented Instructions ****************************************/
+            default:
+                for (int i = 0; i < state.instSize - 1; i++) {
+                    state.args[i] = fetchByte();
+                }
+                setOpTrap();
+                break;
+        }
+    }
 
-        delayLoop(state.ir);
+    /*
+     * Operand fetching for the direct dispatch core. Each of these reads the
+     * instruction's operand bytes into state.args, advances the PC past them,
+     * and returns the effective address (or the immediate value).
+     */
 
-        // Peek ahead to the next insturction and arguments
-        peekAhead();
+    private int fetchByte() throws MemoryAccessException {
+        int data = bus.read(state.pc);
+        incrementPC();
+        return data;
+    }
+
+    private int fetchImmediate() throws MemoryAccessException {
+        return state.args[0] = fetchByte();
+    }
+
+    private int fetchZpgAddress() throws MemoryAccessException {
+        return state.args[0] = fetchByte();
+    }
+
+    private int fetchZpxAddress() throws MemoryAccessException {
+        return zpxAddress(state.args[0] = fetchByte());
+    }
+
+    private int fetchZpyAddress() throws MemoryAccessException {
+        return zpyAddress(state.args[0] = fetchByte());
+    }
+
+    private int fetchAbsAddress() throws MemoryAccessException {
+        state.args[0] = fetchByte();
+        state.args[1] = fetchByte();
+        return Utils.address(state.args[0], state.args[1]);
+    }
+
+    private int fetchAbxAddress(boolean pageCrossPenalty) throws MemoryAccessException {
+        int address = (fetchAbsAddress() + state.x) & 0xffff;
+        if (pageCrossPenalty) {
+            checkPageCross(state.args[1], address);
+        }
+        return address;
+    }
+
+    private int fetchAbyAddress(boolean pageCrossPenalty) throws MemoryAccessException {
+        int address = (fetchAbsAddress() + state.y) & 0xffff;
+        if (pageCrossPenalty) {
+            checkPageCross(state.args[1], address);
+        }
+        return address;
+    }
+
+    private int fetchXinAddress() throws MemoryAccessException {
+        int zp = (fetchZpgAddress() + state.x) & 0xff;
+        return Utils.address(bus.read(zp), bus.read(zp + 1));
+    }
+
+    private int fetchInyAddress(boolean pageCrossPenalty) throws MemoryAccessException {
+        int zp = fetchZpgAddress();
+        int base = Utils.address(bus.read(zp), bus.read((zp + 1) & 0xff));
+        int address = (base + state.y) & 0xffff;
+        if (pageCrossPenalty) {
+            checkPageCross(base >> 8, address);
+        }
+        return address;
+    }
+
+    /*
+     * Operations shared by several addressing modes in the direct dispatch core.
+     */
+
+    private void lda(int m) {
+        state.a = m;
+        setArithmeticFlags(m);
+    }
+
+    private void ldx(int m) {
+        state.x = m;
+        setArithmeticFlags(m);
+    }
+
+    private void ldy(int m) {
+        state.y = m;
+        setArithmeticFlags(m);
+    }
+
+    private void ora(int m) {
+        state.a |= m;
+        setArithmeticFlags(state.a);
+    }
+
+    private void and(int m) {
+        state.a &= m;
+        setArithmeticFlags(state.a);
+    }
+
+    private void eor(int m) {
+        state.a ^= m;
+        setArithmeticFlags(state.a);
+    }
+
+    private void bit(int m) {
+        setZeroFlag((state.a & m) == 0);
+        setNegativeFlag((m & 0x80) != 0);
+        setOverflowFlag((m & 0x40) != 0);
+    }
+
+    private void addWithCarry(int m) {
+        if (state.decimalModeFlag) {
+            state.a = adcDecimal(state.a, m);
+        } else {
+            state.a = adc(state.a, m);
+        }
+    }
+
+    private void subtractWithCarry(int m) {
+        if (state.decimalModeFlag) {
+            state.a = sbcDecimal(state.a, m);
+        } else {
+            state.a = sbc(state.a, m);
+        }
+    }
+
+    private void aslMemory(int address) throws MemoryAccessException {
+        int m = asl(bus.read(address));
+        bus.write(address, m);
+        setArithmeticFlags(m);
+    }
+
+    private void lsrMemory(int address) throws MemoryAccessException {
+        int m = lsr(bus.read(address));
+        bus.write(address, m);
+        setArithmeticFlags(m);
     }
 
+    private void rolMemory(int address) throws MemoryAccessException {
+        int m = rol(bus.read(address));
+        bus.write(address, m);
+        setArithmeticFlags(m);
+    }
+
+    private void rorMemory(int address) throws MemoryAccessException {
+        int m = ror(bus.read(address));
+        bus.write(address, m);
+        setArithmeticFlags(m);
+    }
+
+    private void incMemory(int address) throws MemoryAccessException {
+        int m = (bus.read(address) + 1) & 0xff;
+        bus.write(address, m);
+        setArithmeticFlags(m);
+    }
+
+    private void decMemory(int address) throws MemoryAccessException {
+        int m = (bus.read(address) - 1) & 0xff;
+        bus.write(address, m);
+        setArithmeticFlags(m);
+    }
+
+
+    /*
+     * Fill in the next instruction and its arguments. Only the UI needs these,
+     * so this is done on demand instead of after every step, and with peeks
+     * so that looking never disturbs a device.
+     */
     private void peekAhead() throws MemoryAccessException {
-        state.nextIr = bus.read(state.pc);
+        int pc = state.pc;
+        state.nextIr = bus.peek(pc);
         int nextInstSize = Cpu.instructionSizes[state.nextIr];
         for (int i = 1; i < nextInstSize; i++) {
-            int nextRead = (state.pc + i) % bus.endAddress();
-            state.nextArgs[i-1] = bus.read(nextRead);
+            int nextRead = (pc + i) % bus.endAddress();
+            state.nextArgs[i-1] = bus.peek(nextRead);
         }
     }
 
@@ -917,11 +1762,23 @@ public class Cpu implements InstructionTable {
     }
 
     /**
-     * @param clockPeriodInNs The simulated clock period, in nanoseconds
+     * @param clockPeriodInNs The simulated clock period, in nanoseconds. A period
+     *                        of 0 lets the CPU run as fast as possible, with no
+     *                        wall-clock work at all on the execution path.
      */
     public void setClockPeriodInNs(long clockPeriodInNs) {
         logger.debug("Setting simulated clock period to {} ns.", clockPeriodInNs);
         this.clockPeriodInNs = clockPeriodInNs;
+        this.throttleBatchCycles = clockPeriodInNs > 0 ? Math.max(1, THROTTLE_INTERVAL_NS / clockPeriodInNs) : 0;
+        this.throttleStartCycle = state.cycleCounter;
+        this.throttleStartTime = System.nanoTime();
+    }
+
+    /**
+     * @return The simulated clock period, in nanoseconds. 0 means unthrottled.
+     */
+    public long getClockPeriodInNs() {
+        return clockPeriodInNs;
     }
 
     /**
@@ -933,6 +1790,14 @@ public class Cpu implements InstructionTable {
         return state;
     }
 
+    /**
+     * @return The number of clock cycles executed so far, including page
+     *         crossing and branch penalties. This is not cleared on reset.
+     */
+    public long getCycleCount() {
+        return state.cycleCounter;
+    }
+
     /**
      * @return the negative flag
      */
@@ -1148,14 +2013,6 @@ public class Cpu implements InstructionTable {
 
     public void setProgramCounter(int addr) {
         state.pc = addr;
-
-        // As a side-effect of setting the program counter,
-        // we want to peek ahead at the next state.
-        try {
-            peekAhead();
-        } catch (MemoryAccessException ex) {
-            logger.error("Could not peek ahead at next instruction state.");
-        }
     }
 
     public int getStackPointer() {
@@ -1248,6 +2105,23 @@ public class Cpu implements InstructionTable {
         state.irqAsserted = false;
     }
 
+    /**
+     * Set the level of the IRQ line that devices hold low for as long as they
+     * need service. Unlike {@link #assertIrq()}, taking the interrupt does not
+     * release it, so the CPU interrupts again after RTI until the device is
+     * acknowledged.
+     */
+    public void setIrqLine(boolean asserted) {
+        irqLine = asserted;
+    }
+
+    /**
+     * @return true if any device is holding the IRQ line low.
+     */
+    public boolean isIrqLineAsserted() {
+        return irqLine;
+    }
+
     /**
      * Simulate transition from logic-high to logic-low on the NMI line.
      */
@@ -1342,6 +2216,26 @@ public class Cpu implements InstructionTable {
         return (state.pc + (byte) offset) & 0xffff;
     }
 
+    /**
+     * Take a relative branch, including the extra cycle for a taken branch
+     * and one more if the target is on a different page.
+     */
+    private void branch() {
+        int target = relAddress(state.args[0]);
+        state.cycleCounter += ((state.pc ^ target) & 0xff00) == 0 ? 1 : 2;
+        state.pc = target;
+    }
+
+    /**
+     * Indexed reads take an extra cycle when adding the index carries into
+     * the high byte of the address.
+     */
+    private void checkPageCross(int baseHiByte, int effectiveAddress) {
+        if ((effectiveAddress >> 8) != baseHiByte) {
+            state.cycleCounter++;
+        }
+    }
+
     /**
      * Given a single byte, compute the Zero Page,Y offset address.
      */
@@ -1350,22 +2244,33 @@ public class Cpu implements InstructionTable {
     }
 
     /*
-     * Perform a busy-loop until the instruction should complete on the wall clock
+     * Keep the simulated clock in step with the wall clock. Rather than waiting
+     * out every instruction, cycles are counted up into batches of about
+     * THROTTLE_INTERVAL_NS worth of simulated time, and the thread is parked
+     * once per batch until the wall clock has caught up.
      */
-    private void delayLoop(int opcode) {
-        int clockSteps = Cpu.instructionClocks[0xff & opcode];
+    private void throttle() {
+        long throttleCycles = state.cycleCounter - throttleStartCycle;
 
-        if (clockSteps == 0) {
-            logger.warn("Opcode {} has clock step of 0!", opcode);
+        if (throttleCycles < throttleBatchCycles) {
             return;
         }
 
-        long interval = clockSteps * clockPeriodInNs;
-        long end;
+        long target = throttleStartTime + throttleCycles * clockPeriodInNs;
+        long now = System.nanoTime();
+
+        if (target - now > 0) {
+            LockSupport.parkNanos(target - now);
+            throttleStartTime = target;
+        } else if (now - target > MAX_THROTTLE_LAG_NS) {
+            // We've been paused or starved for a while. Start over from now
+            // rather than running flat out to make up the difference.
+            throttleStartTime = now;
+        } else {
+            throttleStartTime = target;
+        }
 
-        do {
-            end = System.nanoTime();
-        } while (opBeginTime + interval >= end);
+        throttleStartCycle = state.cycleCounter;
     }
 
     /**
@@ -1427,6 +2332,11 @@ public class Cpu implements InstructionTable {
      * @return A string representing the mnemonic and operands of the instruction
      */
     public String disassembleNextOp() {
+        try {
+            peekAhead();
+        } catch (MemoryAccessException ex) {
+            logger.error("Could not peek ahead at next instruction state.");
+        }
         return Cpu.disassembleOp(state.nextIr, state.nextArgs);
     }
 
@@ -1435,12 +2345,12 @@ public class Cpu implements InstructionTable {
      * @return String containing the disassembled instruction and operands.
      */
     public String disassembleOpAtAddress(int address) throws MemoryAccessException {
-        int opCode = bus.read(address);
+        int opCode = bus.peek(address);
         int args[] = new int[2];
         int size = Cpu.instructionSizes[opCode];
         for (int i = 1; i < size; i++) {
             int nextRead = (address + i) % bus.endAddress();
-            args[i-1] = bus.read(nextRead);
+            args[i-1] = bus.peek(nextRead);
         }
 
         return disassembleOp(opCode, args);
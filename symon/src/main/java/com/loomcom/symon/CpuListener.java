@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.loomcom.symon;
+
+/**
+ * Observes the CPU as it runs. Register with {@link Cpu#addCpuListener(CpuListener)}.
+ * <p/>
+ * Listeners are called on the thread that steps the CPU, and are handed the
+ * CPU's live state, which they must not keep or modify. Copy anything needed
+ * later. When no listeners are registered, the CPU skips all of this with a
+ * single null check per step.
+ *
+ * @see CpuAdapter
+ */
+public interface CpuListener {
+
+    /**
+     * Called before the instruction at <code>state.pc</code> is fetched, after
+     * any pending interrupt has been taken.
+     */
+    void beforeExecute(CpuState state);
+
+    /**
+     * Called after an instruction has executed. The cycle count includes it, and
+     * <code>state.pc</code> is the address of the next instruction.
+     */
+    void afterExecute(CpuState state);
+
+    /**
+     * Called when the CPU responds to an IRQ or NMI, after the return address
+     * has been pushed and <code>state.pc</code> loaded from the vector.
+     *
+     * @param nmi true for an NMI, false for an IRQ.
+     */
+    void interrupt(CpuState state, boolean nmi);
+}
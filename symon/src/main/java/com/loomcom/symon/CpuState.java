@@ -37,7 +37,7 @@ public class CpuState {
     public int ir;
 
     /**
-     * Peek-Ahead to next IR
+     * Peek-Ahead to next IR, filled in on demand by Cpu.disassembleNextOp()
      */
     public int nextIr;
     public int[] args = new int[2];
@@ -58,6 +58,11 @@ public class CpuState {
     public boolean overflowFlag;
     public long stepCounter = 0L;
 
+    /**
+     * Clock cycles executed, including page crossing and branch penalties
+     */
+    public long cycleCounter = 0L;
+
     public CpuState() {}
 
     /**
@@ -92,6 +97,7 @@ public class CpuState {
         this.breakFlag = s.breakFlag;
         this.overflowFlag = s.overflowFlag;
         this.stepCounter = s.stepCounter;
+        this.cycleCounter = s.cycleCounter;
     }
 
     /**
@@ -140,6 +146,19 @@ public class CpuState {
         return status;
     }
 
+    /**
+     * Set the status flags from a Process Status Register value.
+     */
+    public void setStatusFlag(int status) {
+        carryFlag = (status & Cpu.P_CARRY) != 0;
+        zeroFlag = (status & Cpu.P_ZERO) != 0;
+        irqDisableFlag = (status & Cpu.P_IRQ_DISABLE) != 0;
+        decimalModeFlag = (status & Cpu.P_DECIMAL) != 0;
+        breakFlag = (status & Cpu.P_BREAK) != 0;
+        overflowFlag = (status & Cpu.P_OVERFLOW) != 0;
+        negativeFlag = (status & Cpu.P_NEGATIVE) != 0;
+    }
+
     public String getInstructionByteStatus() {
         switch (Cpu.instructionSizes[ir]) {
             case 0:
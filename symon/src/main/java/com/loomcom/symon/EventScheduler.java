@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.loomcom.symon;
+
+import java.util.Arrays;
+
+/**
+ * Runs device events at given points in emulated time, measured in CPU clock
+ * cycles, so devices such as timers never need threads of their own.
+ * <p/>
+ * Each bus owns one scheduler. The CPU checks it after every instruction, at
+ * the cost of a single comparison unless an event is due. Due events then
+ * run in cycle order, and are told the exact cycle they were scheduled for,
+ * which may be a few cycles before the end of the instruction that made them
+ * due. Devices that base their next event on that cycle rather than on the
+ * current one keep perfect long-term timing.
+ * <p/>
+ * The scheduler is not thread safe. Events must only be scheduled from the
+ * thread running the CPU, or while it is stopped.
+ */
+public class EventScheduler {
+
+    /**
+     * Something to be done at a given cycle. An event can be scheduled at
+     * most once at a time; scheduling it again moves it.
+     */
+    public abstract static class Event {
+        private long cycle;
+        private boolean scheduled;
+
+        /**
+         * Called when the event is due.
+         *
+         * @param cycle The cycle the event was scheduled for.
+         */
+        public abstract void fire(long cycle);
+
+        public boolean isScheduled() {
+            return scheduled;
+        }
+
+        /**
+         * @return The cycle the event is scheduled for, if it is scheduled.
+         */
+        public long getCycle() {
+            return cycle;
+        }
+    }
+
+    // Scheduled events, in the order they are due
+    private Event[] queue = new Event[8];
+    private int size = 0;
+
+    private long nextEventCycle = Long.MAX_VALUE;
+
+    /**
+     * @return The cycle the next event is due, or Long.MAX_VALUE if nothing
+     *         is scheduled.
+     */
+    public long getNextEventCycle() {
+        return nextEventCycle;
+    }
+
+    /**
+     * Schedule an event, or move it if it is already scheduled. Events due on
+     * the same cycle run in the order they were scheduled.
+     */
+    public void schedule(Event event, long cycle) {
+        if (event.scheduled) {
+            remove(event);
+        }
+        if (size == queue.length) {
+            queue = Arrays.copyOf(queue, size * 2);
+        }
+        int i = size;
+        while (i > 0 && queue[i - 1].cycle > cycle) {
+            queue[i] = queue[i - 1];
+            i--;
+        }
+        queue[i] = event;
+        size++;
+        event.cycle = cycle;
+        event.scheduled = true;
+        nextEventCycle = queue[0].cycle;
+    }
+
+    /**
+     * Remove an event from the schedule. Does nothing if it is not scheduled.
+     */
+    public void cancel(Event event) {
+        if (event.scheduled) {
+            remove(event);
+            nextEventCycle = size > 0 ? queue[0].cycle : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Run every event due on or before <code>now</code>, including any that
+     * are scheduled by the events themselves.
+     */
+    public void runUntil(long now) {
+        while (size > 0 && queue[0].cycle <= now) {
+            Event event = queue[0];
+            remove(event);
+            nextEventCycle = size > 0 ? queue[0].cycle : Long.MAX_VALUE;
+            event.fire(event.cycle);
+        }
+    }
+
+    /**
+     * @return The number of events scheduled.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void remove(Event event) {
+        for (int i = 0; i < size; i++) {
+            if (queue[i] == event) {
+                System.arraycopy(queue, i + 1, queue, i, size - i - 1);
+                queue[--size] = null;
+                break;
+            }
+        }
+        event.scheduled = false;
+    }
+}
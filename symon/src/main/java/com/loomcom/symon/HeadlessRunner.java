@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.loomcom.symon;
+
+import com.loomcom.symon.devices.Acia;
+import com.loomcom.symon.devices.Memory;
+import com.loomcom.symon.devices.SdCard;
+import com.loomcom.symon.exceptions.MemoryAccessException;
+import com.loomcom.symon.exceptions.MemoryRangeException;
+import com.loomcom.symon.machines.Machine;
+import com.loomcom.symon.machines.MulticompMachine;
+import com.loomcom.symon.machines.SimpleMachine;
+import com.loomcom.symon.machines.SymonMachine;
+import com.loomcom.symon.util.TraceWriter;
+import com.loomcom.symon.util.Utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs a simulated machine without any user interface.
+ * <p/>
+ * The CPU is stepped in a tight loop until an instruction or cycle budget
+ * is exhausted, or until a halt condition is met. The machine's ACIA (if
+ * any) is attached to an input and an output stream, which default to
+ * stdin and stdout. Nothing in this class touches AWT or Swing, so it is
+ * safe to use on servers and in CI environments with no display.
+ */
+public class HeadlessRunner {
+
+    /**
+     * The reasons a run may come to an end.
+     */
+    public enum HaltReason {
+        STEP_LIMIT,
+        CYCLE_LIMIT,
+        BREAKPOINT,
+        BRK,
+        TRAP,
+        ILLEGAL_OPCODE
+    }
+
+    // Number of steps between polls of the input stream and flushes of the output stream.
+    private static final int IO_POLL_INTERVAL = 1024;
+
+    private final Machine machine;
+
+    private long maxSteps = Long.MAX_VALUE;
+    private long maxCycles = Long.MAX_VALUE;
+    private boolean haltOnBrk = false;
+    private boolean haltOnTrap = true;
+    private boolean haltOnIllegalOpcode = true;
+    private final TreeSet<Integer> haltAddresses = new TreeSet<>();
+
+    private InputStream input;
+    private OutputStream output;
+    // If true, swap CR and LF characters on input, as the Console does.
+    private boolean swapCrAndLf = true;
+
+    private TraceWriter traceWriter;
+
+    private long steps;
+    private long cycles;
+    private long elapsedNanos;
+
+    public HeadlessRunner(Machine machine) {
+        this.machine = machine;
+    }
+
+    public Machine getMachine() {
+        return machine;
+    }
+
+    /**
+     * @param maxSteps Maximum number of instructions to execute before halting.
+     */
+    public void setMaxSteps(long maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * @param maxCycles Maximum number of clock cycles to execute before halting.
+     */
+    public void setMaxCycles(long maxCycles) {
+        this.maxCycles = maxCycles;
+    }
+
+    /**
+     * @param haltOnBrk If true, halt after a BRK instruction has been executed.
+     */
+    public void setHaltOnBrk(boolean haltOnBrk) {
+        this.haltOnBrk = haltOnBrk;
+    }
+
+    /**
+     * @param haltOnTrap If true, halt when an instruction jumps or branches to itself.
+     */
+    public void setHaltOnTrap(boolean haltOnTrap) {
+        this.haltOnTrap = haltOnTrap;
+    }
+
+    /**
+     * @param haltOnIllegalOpcode If true, halt when an unimplemented opcode is executed.
+     */
+    public void setHaltOnIllegalOpcode(boolean haltOnIllegalOpcode) {
+        this.haltOnIllegalOpcode = haltOnIllegalOpcode;
+    }
+
+    /**
+     * Halt as soon as the program counter reaches the given address.
+     *
+     * @param address The address to halt at.
+     */
+    public void addHaltAddress(int address) {
+        haltAddresses.add(address & 0xffff);
+    }
+
+    /**
+     * Attach the machine's ACIA to the given streams. Either may be null.
+     *
+     * @param input  Data to feed to the ACIA receiver.
+     * @param output Destination for data written to the ACIA transmitter.
+     */
+    public void setConsole(InputStream input, OutputStream output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * @param swapCrAndLf If true, swap CR and LF characters read from the input stream.
+     */
+    public void setSwapCrAndLf(boolean swapCrAndLf) {
+        this.swapCrAndLf = swapCrAndLf;
+    }
+
+    /**
+     * @param traceWriter If not null, every instruction executed is recorded here.
+     *                    The caller is responsible for closing it.
+     */
+    public void setTraceWriter(TraceWriter traceWriter) {
+        this.traceWriter = traceWriter;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Load a ROM image into the machine's ROM address space.
+     */
+    public void loadRom(File romFile) throws MemoryRangeException, IOException {
+        if (machine.getRom() == null) {
+            throw new MemoryRangeException("Machine " + machine.getName() + " has no ROM.");
+        }
+        if (romFile.length() != machine.getRomSize()) {
+            throw new IOException("ROM file must be exactly " + machine.getRomSize() + " bytes.");
+        }
+        int base = machine.getRomBase();
+        machine.setRom(Memory.makeROM(base, base + machine.getRomSize() - 1, romFile));
+    }
+
+    /**
+     * Load a raw binary file into memory through the bus.
+     */
+    public void loadProgram(File programFile, int startAddress) throws MemoryAccessException, IOException {
+        byte[] program = Files.readAllBytes(programFile.toPath());
+
+        int addr = startAddress;
+        for (byte b : program) {
+            machine.getBus().write(addr++, b & 0xff);
+        }
+    }
+
+    /**
+     * Step the CPU until a budget is exhausted or a halt condition is met.
+     *
+     * @return The reason the run ended.
+     */
+    public HaltReason run() throws MemoryAccessException, IOException {
+        Cpu cpu = machine.getCpu();
+        Acia acia = machine.getAcia();
+        boolean checkHaltAddresses = !haltAddresses.isEmpty();
+        int pollCountdown = IO_POLL_INTERVAL;
+        HaltReason reason;
+
+        long startTime = System.nanoTime();
+        long startCycles = cpu.getCycleCount() - cycles;
+
+        try {
+            while (true) {
+                if (steps >= maxSteps) {
+                    reason = HaltReason.STEP_LIMIT;
+                    break;
+                }
+                if (cycles >= maxCycles) {
+                    reason = HaltReason.CYCLE_LIMIT;
+                    break;
+                }
+
+                cpu.step();
+                steps++;
+                cycles = cpu.getCycleCount() - startCycles;
+
+                CpuState state = cpu.getCpuState();
+                if (traceWriter != null) {
+                    traceWriter.record(state);
+                }
+
+                if (acia != null) {
+                    if (acia.hasTxChar()) {
+                        int c = acia.txRead();
+                        if (output != null) {
+                            output.write(c);
+                        }
+                    }
+                    if (--pollCountdown == 0) {
+                        pollCountdown = IO_POLL_INTERVAL;
+                        pollIo(acia);
+                    }
+                }
+
+                if (state.opTrap && haltOnIllegalOpcode) {
+                    reason = HaltReason.ILLEGAL_OPCODE;
+                    break;
+                }
+                if (state.ir == 0x00 && haltOnBrk) {
+                    reason = HaltReason.BRK;
+                    break;
+                }
+                if (state.pc == state.lastPc && haltOnTrap && isJump(state.ir)) {
+                    reason = HaltReason.TRAP;
+                    break;
+                }
+                if (checkHaltAddresses && haltAddresses.contains(state.pc)) {
+                    reason = HaltReason.BREAKPOINT;
+                    break;
+                }
+            }
+        } finally {
+            elapsedNanos = System.nanoTime() - startTime;
+            if (output != null) {
+                output.flush();
+            }
+        }
+
+        return reason;
+    }
+
+    /**
+     * @return true for JMP and branch instructions. Only these are an endless loop
+     *         when they land on themselves; an RTS or RTI that returns to its own
+     *         address has changed the stack on the way.
+     */
+    private static boolean isJump(int ir) {
+        return ir == 0x4c || ir == 0x6c || (ir & 0x1f) == 0x10;
+    }
+
+    /**
+     * Feed the ACIA from the input stream, if it is ready for another character,
+     * and push any pending output along.
+     */
+    private void pollIo(Acia acia) throws IOException {
+        if (input != null && !acia.hasRxChar() && input.available() > 0) {
+            int c = input.read();
+            if (c < 0) {
+                input = null;
+            } else {
+                if (swapCrAndLf) {
+                    if (c == 0x0a) {
+                        c = 0x0d;
+                    } else if (c == 0x0d) {
+                        c = 0x0a;
+                    }
+                }
+                acia.rxWrite(c);
+            }
+        }
+        if (output != null) {
+            output.flush();
+        }
+    }
+
+    /**
+     * @return A one-line summary of the machine state, suitable for logs.
+     */
+    public String getSummary(HaltReason reason) {
+        Cpu cpu = machine.getCpu();
+        double seconds = elapsedNanos / 1.0e9;
+        double mhz = seconds > 0 ? (cycles / seconds) / 1.0e6 : 0.0;
+        return String.format(Locale.ENGLISH,
+                             "%s: halted (%s) at $%s after %d steps, %d cycles in %.3f s (%.2f MHz) %s",
+                             machine.getName(), reason, Utils.wordToHex(cpu.getProgramCounter()),
+                             steps, cycles, seconds, mhz, cpu.getCpuState().toTraceEvent().trim());
+    }
+
+    private static void usage() {
+        System.err.println("Usage: HeadlessRunner [options]\n" +
+                           "  -machine symon|multicomp|simple  Machine to simulate (default: symon)\n" +
+                           "  -rom FILE          Load a ROM image\n" +
+                           "  -load FILE         Load a raw binary into memory\n" +
+                           "  -address ADDR      Load address for -load, in hex (default: 0300)\n" +
+                           "  -pc ADDR           Start execution at ADDR instead of the reset vector\n" +
+                           "  -steps N           Halt after N instructions\n" +
+                           "  -cycles N          Halt after N clock cycles\n" +
+                           "  -speed MHZ         Throttle to MHZ simulated MHz (default: 0, unthrottled)\n" +
+                           "  -halt-at ADDR      Halt when the PC reaches ADDR (may be repeated)\n" +
+                           "  -halt-on-brk       Halt after executing BRK\n" +
+                           "  -no-halt-on-trap   Do not halt when an instruction jumps to itself\n" +
+                           "  -expect-pc ADDR    Exit with status 2 unless halted at ADDR\n" +
+                           "  -in FILE           Feed the ACIA from FILE instead of stdin\n" +
+                           "  -out FILE          Write ACIA output to FILE instead of stdout\n" +
+                           "  -trace FILE        Record every instruction to FILE (see TraceDump)\n" +
+                           "  -sd FILE           SD card image for the multicomp machine (default: sd.img).\n" +
+                           "                     Repeat to add cards at further LUNs\n" +
+                           "  -sd-overlay FILE   Write the preceding SD card's changes to FILE, leaving\n" +
+                           "                     its image unchanged\n" +
+                           "  -sd-read-only      Write protect the preceding SD card\n" +
+                           "  -sd-mapped         Memory map the preceding SD card's image");
+    }
+
+    private static int parseAddress(String s) {
+        if (s.startsWith("$")) {
+            s = s.substring(1);
+        }
+        return Integer.parseInt(s, 16) & 0xffff;
+    }
+
+    private static Class<? extends Machine> machineClass(String name) {
+        switch (name.trim().toLowerCase(Locale.ENGLISH)) {
+            case "multicomp":
+                return MulticompMachine.class;
+            case "simple":
+                return SimpleMachine.class;
+            case "symon":
+                return SymonMachine.class;
+            default:
+                throw new IllegalArgumentException("Unknown machine: " + name);
+        }
+    }
+
+    /**
+     * Main entry point for headless runs.
+     *
+     * @param args Program arguments
+     */
+    public static void main(String args[]) throws Exception {
+        // Keep log output off the simulated console.
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+
+        Class<? extends Machine> machineClass = SymonMachine.class;
+        File romFile = null;
+        File programFile = null;
+        int loadAddress = Preferences.DEFAULT_PROGRAM_LOAD_ADDRESS;
+        Integer startPc = null;
+        Integer expectPc = null;
+        File inFile = null;
+        File outFile = null;
+        File traceFile = null;
+        TreeSet<Integer> haltAddresses = new TreeSet<>();
+        long maxSteps = Long.MAX_VALUE;
+        long maxCycles = Long.MAX_VALUE;
+        long clockPeriodInNs = 0;
+        boolean haltOnBrk = false;
+        boolean haltOnTrap = true;
+        List<File> sdImages = new ArrayList<>();
+        Map<Integer, File> sdOverlays = new HashMap<>();
+        Set<Integer> sdReadOnly = new HashSet<>();
+        Set<Integer> sdMapped = new HashSet<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i].toLowerCase(Locale.ENGLISH);
+                boolean hasValue = (i + 1) < args.length;
+                switch (arg) {
+                    case "-headless":
+                        break;
+                    case "-halt-on-brk":
+                        haltOnBrk = true;
+                        break;
+                    case "-no-halt-on-trap":
+                        haltOnTrap = false;
+                        break;
+                    case "-sd-read-only":
+                        if (sdImages.isEmpty()) {
+                            sdImages.add(new File("sd.img"));
+                        }
+                        sdReadOnly.add(sdImages.size() - 1);
+                        break;
+                    case "-sd-mapped":
+                        if (sdImages.isEmpty()) {
+                            sdImages.add(new File("sd.img"));
+                        }
+                        sdMapped.add(sdImages.size() - 1);
+                        break;
+                    case "-help":
+                        usage();
+                        return;
+                    default:
+                        if (!hasValue) {
+                            throw new IllegalArgumentException("Unknown or incomplete option: " + args[i]);
+                        }
+                        String value = args[++i];
+                        switch (arg) {
+                            case "-machine":
+                                machineClass = machineClass(value);
+                                break;
+                            case "-rom":
+                                romFile = new File(value);
+                                break;
+                            case "-load":
+                                programFile = new File(value);
+                                break;
+                            case "-address":
+                                loadAddress = parseAddress(value);
+                                break;
+                            case "-pc":
+                                startPc = parseAddress(value);
+                                break;
+                            case "-steps":
+                                maxSteps = Long.parseLong(value);
+                                break;
+                            case "-cycles":
+                                maxCycles = Long.parseLong(value);
+                                break;
+                            case "-speed":
+                                double mhz = Double.parseDouble(value);
+                                clockPeriodInNs = mhz > 0 ? Math.round(1000 / mhz) : 0;
+                                break;
+                            case "-halt-at":
+                                haltAddresses.add(parseAddress(value));
+                                break;
+                            case "-expect-pc":
+                                expectPc = parseAddress(value);
+                                break;
+                            case "-in":
+                                inFile = new File(value);
+                                break;
+                            case "-out":
+                                outFile = new File(value);
+                                break;
+                            case "-trace":
+                                traceFile = new File(value);
+                                break;
+                            case "-sd":
+                                sdImages.add(new File(value));
+                                break;
+                            case "-sd-overlay":
+                                if (sdImages.isEmpty()) {
+                                    sdImages.add(new File("sd.img"));
+                                }
+                                sdOverlays.put(sdImages.size() - 1, new File(value));
+                                break;
+                            default:
+                                throw new IllegalArgumentException("Unknown option: " + args[i - 1]);
+                        }
+                }
+            }
+            if (!sdImages.isEmpty() && machineClass != MulticompMachine.class) {
+                throw new IllegalArgumentException("SD card options need -machine multicomp");
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage();
+            System.exit(1);
+            return;
+        }
+
+        HeadlessRunner runner;
+        if (sdImages.isEmpty()) {
+            runner = new HeadlessRunner(machineClass.getConstructor().newInstance());
+        } else {
+            SdCard[] cards = new SdCard[sdImages.size()];
+            for (int i = 0; i < cards.length; i++) {
+                cards[i] = new SdCard(sdImages.get(i), sdOverlays.get(i), sdReadOnly.contains(i), sdMapped.contains(i));
+            }
+            runner = new HeadlessRunner(new MulticompMachine(cards));
+        }
+        runner.setMaxSteps(maxSteps);
+        runner.setMaxCycles(maxCycles);
+        runner.setHaltOnBrk(haltOnBrk);
+        runner.setHaltOnTrap(haltOnTrap);
+        for (int address : haltAddresses) {
+            runner.addHaltAddress(address);
+        }
+
+        Machine machine = runner.getMachine();
+        machine.getCpu().setClockPeriodInNs(clockPeriodInNs);
+
+        if (romFile != null) {
+            runner.loadRom(romFile);
+        }
+        if (programFile != null) {
+            runner.loadProgram(programFile, loadAddress);
+        }
+
+        machine.getCpu().reset();
+        if (startPc != null) {
+            machine.getCpu().setProgramCounter(startPc);
+        }
+
+        InputStream in = (inFile != null) ? new FileInputStream(inFile) : System.in;
+        OutputStream out = new BufferedOutputStream((outFile != null) ? new FileOutputStream(outFile) : stdout);
+        runner.setConsole(in, out);
+
+        TraceWriter traceWriter = null;
+        if (traceFile != null) {
+            traceWriter = new TraceWriter(traceFile);
+            runner.setTraceWriter(traceWriter);
+        }
+
+        HaltReason reason;
+        try {
+            reason = runner.run();
+        } finally {
+            if (outFile != null) {
+                out.close();
+            }
+            if (inFile != null) {
+                in.close();
+            }
+            if (traceWriter != null) {
+                traceWriter.close();
+            }
+            machine.getBus().shutdown();
+        }
+
+        System.err.println(runner.getSummary(reason));
+
+        if (expectPc != null && machine.getCpu().getProgramCounter() != expectPc) {
+            System.exit(2);
+        }
+    }
+}
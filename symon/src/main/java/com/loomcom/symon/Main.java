@@ -42,6 +42,14 @@ public class Main {
      * @param args Program arguments
      */
     public static void main(String args[]) throws Exception {
+
+        // Headless runs must never start AWT, so hand them off before anything else.
+        for (String arg : args) {
+            if (arg.equalsIgnoreCase("-headless")) {
+                HeadlessRunner.main(args);
+                return;
+            }
+        }
         
         Class machineClass = SymonMachine.class;
         for(int i = 0; i < args.length; ++i) {
@@ -28,6 +28,7 @@ import com.loomcom.symon.exceptions.*;
 import com.loomcom.symon.machines.Machine;
 import com.loomcom.symon.ui.*;
 import com.loomcom.symon.ui.Console;
+import com.loomcom.symon.util.ByteRing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +37,8 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -56,31 +59,31 @@ public class Simulator {
     private static final Font DEFAULT_FONT = new Font(Font.MONOSPACED, Font.PLAIN, DEFAULT_FONT_SIZE);
     private static final int CONSOLE_BORDER_WIDTH = 10;
 
-    // Clock periods, in NS, for each speed. 0MHz, 1MHz, 2MHz, 3MHz, 4MHz, 5MHz, 6MHz, 7MHz, 8MHz.
+    // Size of the buffers between the ACIA and the console. Output is printed to the console in one batch per
+    // UI refresh, so this bounds how much a program can print between refreshes before it has to wait.
+    private static final int CONSOLE_BUFFER_SIZE = 8192;
+
+    // Clock periods, in NS, for each speed. Unlimited, 1MHz, 2MHz, 3MHz, 4MHz, 5MHz, 6MHz, 7MHz, 8MHz.
     private static final long[] CLOCK_PERIODS = {0, 1000, 500, 333, 250, 200, 167, 143, 125};
 
-    // Since it is very expensive to update the UI with Swing's Event Dispatch Thread, we can't afford
-    // to refresh the status view on every simulated clock cycle. Instead, we will only refresh the status view
-    // after this number of steps when running normally.
-    //
-    // Since we're simulating a 1MHz 6502 here, we have a 1 us delay between steps. Setting this to 20000
-    // should give us a status update about every 100 ms.
-    //
-    // TODO: Work around the event dispatch thread with custom painting code instead of relying on Swing.
-    //
-    private static final int MAX_STEPS_BETWEEN_UPDATES = 20000;
+    // Since it is very expensive to update the UI with Swing's Event Dispatch Thread, the run thread never
+    // touches Swing. Instead, a timer on the Event Dispatch Thread refreshes the status, memory and video views
+    // at this interval from a copy of the CPU state published by the run thread. This gives about 30 updates
+    // per second, however fast the simulated CPU is running.
+    private static final int UI_REFRESH_INTERVAL_MS = 33;
 
     // The simulated machine
     private Machine machine;
 
-    // Number of CPU steps between CRT repaints.
-    // TODO: Dynamically refresh the value at runtime based on performance figures to reach ~ 30fps.
-    private static final long STEPS_BETWEEN_CRTC_REFRESHES = 2500;
+    // Set by the UI refresh timer when it wants a fresh copy of the CPU state,
+    // and cleared by the run thread once it has published one.
+    private volatile boolean stateRequested = false;
+    private volatile CpuState publishedState;
 
-    // A counter to keep track of the number of UI updates that have been
-    // requested
-    private int stepsSinceLastUpdate = 0;
-    private int stepsSinceLastCrtcRefresh = 0;
+    // Characters from the ACIA to the console, and from the console to the ACIA.
+    private final ByteRing consoleOutput = new ByteRing(CONSOLE_BUFFER_SIZE);
+    private final ByteRing consoleInput = new ByteRing(CONSOLE_BUFFER_SIZE);
+    private final byte[] consoleBatch = new byte[CONSOLE_BUFFER_SIZE];
 
     // The number of steps to run per click of the "Step" button
     private int stepsPerClick = 1;
@@ -108,7 +111,8 @@ public class Simulator {
 
     private SimulatorMenu menuBar;
 
-    private RunLoop runLoop;
+    private volatile RunLoop runLoop;
+    private Timer uiRefreshTimer;
     private Console console;
     private StatusPanel statusPane;
 
@@ -121,6 +125,16 @@ public class Simulator {
 
     private Breakpoints breakpoints;
 
+    // Shuts the machine down, writing back anything its devices have buffered, if the
+    // simulator exits while the machine is still in use.
+    private final Thread shutdownHook = new Thread() {
+        @Override
+        public void run() {
+            stopRunLoop();
+            machine.getBus().shutdown();
+        }
+    };
+
     private final Object commandMonitorObject = new Object();
 
     private MainCommand command = MainCommand.NONE;
@@ -135,13 +149,25 @@ public class Simulator {
      */
     private static final String[] STEPS = {"1", "5", "10", "20", "50", "100"};
 
-    public Simulator(Class machineClass) throws Exception {
-        this.breakpoints = new Breakpoints(this);
+    public Simulator(Class<?> machineClass) throws Exception {
+        this.machine = (Machine) machineClass.getConstructor().newInstance();
+
+        this.breakpoints = new Breakpoints(this, machine.getBus());
 
-        this.machine = (Machine) machineClass.getConstructors()[0].newInstance();
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        if (machine.getAcia() != null) {
+            machine.getAcia().setBuffers(consoleOutput, consoleInput);
+        }
 
         // Initialize final fields in the constructor.
         this.traceLog = new TraceLog();
+        machine.getCpu().addCpuListener(new CpuAdapter() {
+            @Override
+            public void afterExecute(CpuState state) {
+                traceLog.append(state);
+            }
+        });
         this.memoryWindow = new MemoryWindow(machine.getBus());
         this.breakpointsWindow = new BreakpointsWindow(breakpoints, mainWindow);
 
@@ -248,6 +274,13 @@ public class Simulator {
             }
         });
 
+        uiRefreshTimer = new Timer(UI_REFRESH_INTERVAL_MS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                refreshRunningState();
+            }
+        });
+
         mainWindow.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
 
         // The Menu. This comes last, because it relies on other components having
@@ -283,6 +316,23 @@ public class Simulator {
         traceLog.simulatorDidStart();
     }
 
+    /**
+     * Stop the run loop, if there is one, and wait for it to finish, so that
+     * the run thread is done with the machine before anything else uses it.
+     */
+    private void stopRunLoop() {
+        RunLoop loop = runLoop;
+        if (loop != null) {
+            loop.requestStop();
+            loop.interrupt();
+            try {
+                loop.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     private void handleStop() {
         runLoop.requestStop();
         runLoop.interrupt();
@@ -304,7 +354,7 @@ public class Simulator {
             // Reset CPU
             machine.getCpu().reset();
             // Clear the console.
-            console.reset();
+            resetConsole();
             // Reset the trace log.
             traceLog.reset();
             // If we're doing a cold reset, clear the memory.
@@ -341,40 +391,76 @@ public class Simulator {
      */
     private void step() throws MemoryAccessException {
         machine.getCpu().step();
+    }
 
-        traceLog.append(machine.getCpu().getCpuState());
+    /**
+     * Publish a copy of the CPU state for the UI refresh timer, if it has
+     * asked for one. Called by the run thread between steps. This is also
+     * when console input is offered to the ACIA, for programs that wait for
+     * a receive interrupt rather than polling.
+     */
+    private void publishState() {
+        if (stateRequested) {
+            publishedState = new CpuState(machine.getCpu().getCpuState());
+            if (machine.getAcia() != null) {
+                machine.getAcia().serviceBuffers();
+            }
+            stateRequested = false;
+        }
+    }
 
-        // Read from the ACIA and immediately update the console if there's
-        // output ready.
-        if (machine.getAcia() != null && machine.getAcia().hasTxChar()) {
-            // This is thread-safe
-            console.print(Character.toString((char) machine.getAcia().txRead()));
+    /**
+     * Print everything the ACIA has sent since the last call in one batch,
+     * and pass on any keys typed since then. Called on the Event Dispatch
+     * Thread.
+     */
+    private void updateConsole() {
+        int count = consoleOutput.drain(consoleBatch, 0, consoleBatch.length);
+        if (count > 0) {
+            console.print(new String(consoleBatch, 0, count, StandardCharsets.ISO_8859_1));
             console.repaint();
         }
 
-        // If a key has been pressed, fill the ACIA.
         try {
-            if (machine.getAcia() != null && console.hasInput()) {
-                machine.getAcia().rxWrite((int) console.readInputChar());
+            while (console.hasInput() && consoleInput.size() < consoleInput.capacity()) {
+                consoleInput.offer(console.readInputChar());
             }
         } catch (FifoUnderrunException ex) {
             logger.error("Console type-ahead buffer underrun!");
         }
+    }
 
-        if (videoWindow != null && stepsSinceLastCrtcRefresh++ > STEPS_BETWEEN_CRTC_REFRESHES) {
-            stepsSinceLastCrtcRefresh = 0;
-            if (videoWindow.isVisible()) {
-                videoWindow.repaint();
-            }
+    /**
+     * Clear the console, along with any output not yet printed and any input
+     * not yet taken by the ACIA. Called on the Event Dispatch Thread, which
+     * only consumes the output ring, so the input ring is left to the ACIA
+     * to clear.
+     */
+    private void resetConsole() {
+        console.reset();
+        consoleOutput.clear();
+        if (machine.getAcia() != null) {
+            machine.getAcia().discardInput();
         }
+    }
 
-        // This is a very expensive update, and we're doing it without
-        // a delay, so we don't want to overwhelm the Swing event processing thread
-        // with requests. Limit the number of ui updates that can be performed.
-        if (stepsSinceLastUpdate++ > MAX_STEPS_BETWEEN_UPDATES) {
-            updateVisibleState();
-            stepsSinceLastUpdate = 0;
+    /**
+     * Refresh the visible views while the simulator is running. Called by
+     * the UI refresh timer on the Event Dispatch Thread.
+     */
+    private void refreshRunningState() {
+        updateConsole();
+        CpuState state = publishedState;
+        if (state != null) {
+            statusPane.updateState(state);
+        }
+        if (memoryWindow.isVisible()) {
+            memoryWindow.updateState();
+        }
+        if (videoWindow != null && videoWindow.isVisible()) {
+            videoWindow.repaint();
         }
+        stateRequested = true;
     }
 
     /**
@@ -403,7 +489,7 @@ public class Simulator {
      * The main run thread.
      */
     class RunLoop extends Thread {
-        private boolean isRunning = false;
+        private volatile boolean isRunning = false;
 
         public boolean isRunning() {
             return isRunning;
@@ -426,12 +512,16 @@ public class Simulator {
                     menuBar.simulatorDidStart();
                     // Toggle the state of the run button
                     runStopButton.setText("Stop");
+                    uiRefreshTimer.start();
                 }
             });
 
+            breakpoints.clearWatchpointHits();
+
             try {
                 do {
                     step();
+                    publishState();
                 } while (shouldContinue());
             } catch (SymonException ex) {
                 logger.error("Exception in main simulator run thread. Exiting run.", ex);
@@ -440,8 +530,14 @@ public class Simulator {
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
+                    uiRefreshTimer.stop();
+                    publishedState = null;
+                    updateConsole();
                     statusPane.updateState();
                     memoryWindow.updateState();
+                    if (videoWindow != null && videoWindow.isVisible()) {
+                        videoWindow.repaint();
+                    }
                     runStopButton.setText("Run");
                     stepButton.setEnabled(true);
                     stepCountBox.setEnabled(true);
@@ -460,8 +556,8 @@ public class Simulator {
          * @return True if the run loop should proceed to the next step.
          */
         private boolean shouldContinue() {
-            return !breakpoints.contains(machine.getCpu().getProgramCounter()) &&
-                    isRunning &&
+            return isRunning &&
+                    (breakpoints.isEmpty() || !breakpoints.shouldBreak(machine.getCpu().getCpuState())) &&
                     !(preferences.getHaltOnBreak() && machine.getCpu().getInstruction() == 0x00);
         }
     }
@@ -491,14 +587,7 @@ public class Simulator {
                                     Integer.toString(machine.getMemorySize(), 16) +
                                     " bytes)");
                         } else {
-                            byte[] program = new byte[(int) fileSize];
-                            int i = 0;
-                            FileInputStream fis = new FileInputStream(f);
-                            BufferedInputStream bis = new BufferedInputStream(fis);
-                            DataInputStream dis = new DataInputStream(bis);
-                            while (dis.available() != 0) {
-                                program[i++] = dis.readByte();
-                            }
+                            byte[] program = Files.readAllBytes(f.toPath());
 
                             // Now load the program at the starting address.
                             loadProgram(program, preferences.getProgramStartAddress());
@@ -506,7 +595,7 @@ public class Simulator {
                             SwingUtilities.invokeLater(new Runnable() {
                                 @Override
                                 public void run() {
-                                    console.reset();
+                                    resetConsole();
                                     breakpoints.refresh();
                                 }
                             });
@@ -605,9 +694,11 @@ public class Simulator {
         }
 
         public void actionPerformed(ActionEvent actionEvent) {
-            if (runLoop != null) {
-                runLoop.requestStop();
-            }
+            stopRunLoop();
+
+            // This machine is finished with, so shut it down now
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            machine.getBus().shutdown();
 
             memoryWindow.dispose();
             traceLog.dispose();
@@ -631,10 +722,8 @@ public class Simulator {
         }
 
         public void actionPerformed(ActionEvent actionEvent) {
-            if (runLoop != null && runLoop.isRunning()) {
-                runLoop.requestStop();
-                runLoop.interrupt();
-            }
+            // Let the run thread finish before the shutdown hook shuts the machine down
+            stopRunLoop();
             System.exit(0);
         }
     }
@@ -663,14 +752,16 @@ public class Simulator {
         private int speed;
 
         public SetSpeedAction(int speed) {
-            super(Integer.toString(speed) + " MHz", null);
+            super(speed == 0 ? "Unlimited" : Integer.toString(speed) + " MHz", null);
             this.speed = speed;
-            putValue(SHORT_DESCRIPTION, "Set simulated speed to " + speed + " MHz.");
+            putValue(SHORT_DESCRIPTION, speed == 0 ?
+                    "Run the simulated CPU as fast as possible." :
+                    "Set simulated speed to " + speed + " MHz.");
         }
 
         @Override
         public void actionPerformed(ActionEvent actionEvent) {
-            if (speed < 1 || speed > CLOCK_PERIODS.length - 1) {
+            if (speed < 0 || speed > CLOCK_PERIODS.length - 1) {
                 return;
             }
 
@@ -876,6 +967,7 @@ public class Simulator {
             makeSpeedMenuItem(2, speedSubMenu, speedGroup);
             makeSpeedMenuItem(4, speedSubMenu, speedGroup);
             makeSpeedMenuItem(8, speedSubMenu, speedGroup);
+            makeSpeedMenuItem(0, speedSubMenu, speedGroup);
 
             simulatorMenu.add(speedSubMenu);
 
@@ -903,7 +995,7 @@ public class Simulator {
         }
 
         private void makeSpeedMenuItem(int speed, JMenu subMenu, ButtonGroup group) {
-            if (speed < 1 || speed > CLOCK_PERIODS.length - 1) {
+            if (speed < 0 || speed > CLOCK_PERIODS.length - 1) {
                 return;
             }
 
@@ -921,6 +1013,7 @@ public class Simulator {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
+                updateConsole();
                 // Now update the state
                 statusPane.updateState();
                 memoryWindow.updateState();
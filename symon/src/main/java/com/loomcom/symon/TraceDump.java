@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.loomcom.symon;
+
+import com.loomcom.symon.util.TraceReader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Converts a binary trace recorded with <code>HeadlessRunner -trace</code> back
+ * into the text format of the Trace Log window, optionally only a slice of it.
+ */
+public class TraceDump {
+
+    /**
+     * Write records <code>from</code> to <code>from + count - 1</code> (counting
+     * from 1) to <code>out</code>.
+     *
+     * @param showCycles If true, start each line with the step and cycle count.
+     * @return The number of records written.
+     */
+    public static long dump(TraceReader reader, Writer out, long from, long count, boolean showCycles)
+            throws IOException {
+        CpuState state = new CpuState();
+        reader.skip(from - 1);
+
+        long written = 0;
+        while (written < count && reader.next(state)) {
+            if (showCycles) {
+                out.write(String.format(Locale.ENGLISH, "%10d %12d  ", state.stepCounter, state.cycleCounter));
+            }
+            out.write(state.toTraceEvent());
+            written++;
+        }
+        out.flush();
+        return written;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: TraceDump [options] FILE\n" +
+                           "  -from N     Start at record N, counting from 1 (default: 1)\n" +
+                           "  -count N    Write at most N records\n" +
+                           "  -cycles     Start each line with the step and cycle count");
+    }
+
+    public static void main(String args[]) throws Exception {
+        long from = 1;
+        long count = Long.MAX_VALUE;
+        boolean showCycles = false;
+        File file = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i].toLowerCase(Locale.ENGLISH);
+                switch (arg) {
+                    case "-cycles":
+                        showCycles = true;
+                        break;
+                    case "-from":
+                    case "-count":
+                        if (i + 1 >= args.length) {
+                            throw new IllegalArgumentException("Incomplete option: " + args[i]);
+                        }
+                        long value = Long.parseLong(args[++i]);
+                        if (arg.equals("-from")) {
+                            from = Math.max(1, value);
+                        } else {
+                            count = value;
+                        }
+                        break;
+                    case "-help":
+                        usage();
+                        return;
+                    default:
+                        if (arg.startsWith("-") || file != null) {
+                            throw new IllegalArgumentException("Unknown option: " + args[i]);
+                        }
+                        file = new File(args[i]);
+                }
+            }
+            if (file == null) {
+                throw new IllegalArgumentException("No trace file given.");
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage();
+            System.exit(1);
+            return;
+        }
+
+        TraceReader reader = new TraceReader(file);
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, Charset.forName("US-ASCII")));
+            dump(reader, out, from, count, showCycles);
+        } finally {
+            reader.close();
+        }
+    }
+}
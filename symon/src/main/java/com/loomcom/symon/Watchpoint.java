@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.loomcom.symon;
+
+import com.loomcom.symon.util.Utils;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stops the simulator after an instruction reads or writes an address range,
+ * such as <code>write $8800</code> or <code>access $0200-$02FF</code>.
+ * <p/>
+ * A watchpoint listens on the bus for just its own range, so only the pages
+ * it covers lose the direct memory fast path.
+ */
+public class Watchpoint implements BusListener {
+
+    private static final Pattern PATTERN = Pattern.compile(
+            "\\s*(READ|WRITE|ACCESS)\\s+\\$?([0-9A-F]{1,4})(?:\\s*-\\s*\\$?([0-9A-F]{1,4}))?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    public static final int READ = 1;
+    public static final int WRITE = 2;
+
+    private final int start;
+    private final int end;
+    private final int kinds;
+
+    // Set on the CPU thread when the range is accessed, and cleared when the
+    // run loop notices
+    private boolean hit;
+
+    public Watchpoint(int start, int end, int kinds) {
+        this.start = start;
+        this.end = end;
+        this.kinds = kinds;
+    }
+
+    /**
+     * @return The watchpoint described by <code>text</code>, or null if it is
+     *         not a watchpoint.
+     */
+    public static Watchpoint parse(String text) {
+        Matcher m = PATTERN.matcher(text);
+        if (!m.matches()) {
+            return null;
+        }
+
+        String kind = m.group(1).toUpperCase(Locale.ENGLISH);
+        int kinds = kind.equals("READ") ? READ : kind.equals("WRITE") ? WRITE : READ | WRITE;
+        int start = Integer.parseInt(m.group(2), 16);
+        int end = m.group(3) == null ? start : Integer.parseInt(m.group(3), 16);
+        if (end < start) {
+            throw new IllegalArgumentException("Watchpoint range ends before it starts: " + text);
+        }
+        return new Watchpoint(start, end, kinds);
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public void read(int address, int value) {
+        if ((kinds & READ) != 0) {
+            hit = true;
+        }
+    }
+
+    public void write(int address, int value) {
+        if ((kinds & WRITE) != 0) {
+            hit = true;
+        }
+    }
+
+    /**
+     * @return true if the range has been accessed since the last call.
+     */
+    public boolean checkAndClearHit() {
+        if (hit) {
+            hit = false;
+            return true;
+        }
+        return false;
+    }
+
+    public String getRangeDescription() {
+        return start == end ? "$" + Utils.wordToHex(start)
+                            : "$" + Utils.wordToHex(start) + "-$" + Utils.wordToHex(end);
+    }
+
+    public String getKindDescription() {
+        return kinds == READ ? "read" : kinds == WRITE ? "write" : "access";
+    }
+
+    public String toString() {
+        return getKindDescription() + " " + getRangeDescription();
+    }
+}
@@ -23,7 +23,10 @@
 
 package com.loomcom.symon.devices;
 
+import com.loomcom.symon.Bus;
+import com.loomcom.symon.EventScheduler;
 import com.loomcom.symon.exceptions.MemoryRangeException;
+import com.loomcom.symon.util.ByteRing;
 
 
 /**
@@ -43,8 +46,16 @@ public abstract class Acia extends Device {
     boolean transmitIrqEnabled = false;
     boolean overrun = false;
     
-	long lastTxWrite   = 0;
-    long lastRxRead    = 0;
+    /**
+     * Nominal system clock, in Hz, that the baud rate is derived from
+     */
+    static final long CLOCK_HZ = 1000000;
+
+    /**
+     * Clock cycle at which the next character can be received or transmitted
+     */
+    long rxReadyCycle  = 0;
+    long txReadyCycle  = 0;
     int  baudRate      = 0;
     long baudRateDelay = 0;
 	
@@ -56,6 +67,35 @@ public abstract class Acia extends Device {
 
     boolean rxFull  = false;
     boolean txEmpty = true;
+
+    /**
+     * Optional buffers to and from a terminal. When attached, characters
+     * written by the CPU are passed straight on to txBuffer, and the receive
+     * register is refilled from rxBuffer whenever it is empty.
+     */
+    private ByteRing txBuffer;
+    private ByteRing rxBuffer;
+
+    /**
+     * Interrupts held back until the baud rate delay has passed
+     */
+    private final EventScheduler.Event rxInterrupt = new EventScheduler.Event() {
+        @Override
+        public void fire(long cycle) {
+            if (receiveIrqEnabled && rxFull) {
+                getBus().assertIrq();
+            }
+        }
+    };
+
+    private final EventScheduler.Event txInterrupt = new EventScheduler.Event() {
+        @Override
+        public void fire(long cycle) {
+            if (transmitIrqEnabled && txEmpty) {
+                getBus().assertIrq();
+            }
+        }
+    };
 	
 	
     public Acia(int address, int size, String name) throws MemoryRangeException {
@@ -66,19 +106,55 @@ public abstract class Acia extends Device {
 
 
     /*
-     * Calculate the delay in nanoseconds between successive read/write operations, based on the
+     * Calculate the delay in clock cycles between successive read/write operations, based on the
      * configured baud rate.
      */
     private long calculateBaudRateDelay() {
         if (baudRate > 0) {
             // TODO: This is a pretty rough approximation based on 8 bits per character,
             // and 1/baudRate per bit. It could certainly be improved
-            return (long)((1.0 / baudRate) * 1000000000 * 8);
+            return (CLOCK_HZ * 8) / baudRate;
         } else {
             return 0;
         }
     }
 
+    /**
+     * @return The number of clock cycles executed on the bus, used as the time base
+     *         for the baud rate delay.
+     */
+    long cycleCount() {
+        return getBus() == null ? 0 : getBus().getCycleCount();
+    }
+
+    /**
+     * Assert an interrupt once the given cycle is reached, using the bus's
+     * event scheduler, or straight away if it has already passed.
+     */
+    private void interruptAt(EventScheduler.Event event, long cycle) {
+        Bus bus = getBus();
+        EventScheduler scheduler = bus.getScheduler();
+        if (scheduler == null || cycle <= cycleCount()) {
+            bus.assertIrq();
+        } else {
+            scheduler.schedule(event, cycle);
+        }
+    }
+
+    /**
+     * @return true if a received character is waiting and the baud rate delay has passed.
+     */
+    boolean rxReady() {
+        return rxFull && cycleCount() >= rxReadyCycle;
+    }
+
+    /**
+     * @return true if the transmit register is empty and the baud rate delay has passed.
+     */
+    boolean txReady() {
+        return txEmpty && cycleCount() >= txReadyCycle;
+    }
+
     /**
      * @return The simulated baud rate in bps.
      */
@@ -97,6 +173,51 @@ public abstract class Acia extends Device {
 		this.baudRateDelay = calculateBaudRateDelay();
     }
 
+    /**
+     * Attach buffers to and from a terminal. The CPU thread is the producer
+     * for <code>txBuffer</code> and the consumer for <code>rxBuffer</code>.
+     *
+     * @param txBuffer Ring to pass transmitted characters to, or null.
+     * @param rxBuffer Ring to take received characters from, or null.
+     */
+    public synchronized void setBuffers(ByteRing txBuffer, ByteRing rxBuffer) {
+        this.txBuffer = txBuffer;
+        this.rxBuffer = rxBuffer;
+    }
+
+    /**
+     * Move characters between the attached buffers and the data registers:
+     * pass on a waiting transmit character if there is room for it, and take
+     * the next received character if the receive register is empty.
+     * <p/>
+     * This happens whenever the CPU reads the status register, so a program
+     * polling the ACIA sees new input and free output space straight away.
+     * Programs that wait for a receive interrupt instead rely on the owner
+     * calling this now and then from the CPU thread.
+     */
+    public synchronized void serviceBuffers() {
+        if (txBuffer != null && !txEmpty && txBuffer.offer(txChar)) {
+            txRead();
+        }
+        if (rxBuffer != null && !rxFull) {
+            int c = rxBuffer.poll();
+            if (c >= 0) {
+                rxWrite(c);
+            }
+        }
+    }
+
+    /**
+     * Throw away any received characters still waiting in the receive
+     * buffer. The CPU thread only takes characters from the buffer while
+     * holding this ACIA's lock, so this is safe to call from any thread.
+     */
+    public synchronized void discardInput() {
+        if (rxBuffer != null) {
+            rxBuffer.clear();
+        }
+    }
+
     /**
      * @return The contents of the status register.
      */
@@ -108,10 +229,14 @@ public abstract class Acia extends Device {
     }
 
     public synchronized int rxRead() {
-        lastRxRead = System.nanoTime();
+        rxReadyCycle = cycleCount() + baudRateDelay;
         overrun = false;
         rxFull = false;
-        return rxChar;
+        int data = rxChar;
+        if (rxBuffer != null) {
+            serviceBuffers();
+        }
+        return data;
     }
 
     public synchronized void rxWrite(int data) {
@@ -122,7 +247,7 @@ public abstract class Acia extends Device {
         rxFull = true;
 
         if (receiveIrqEnabled) {
-            getBus().assertIrq();
+            interruptAt(rxInterrupt, rxReadyCycle);
         }
 
         rxChar = data;
@@ -132,16 +257,19 @@ public abstract class Acia extends Device {
         txEmpty = true;
 
         if (transmitIrqEnabled) {
-            getBus().assertIrq();
+            interruptAt(txInterrupt, txReadyCycle);
         }
 
         return txChar;
     }
 
     public synchronized void txWrite(int data) {
-        lastTxWrite = System.nanoTime();
+        txReadyCycle = cycleCount() + baudRateDelay;
         txChar = data;
         txEmpty = false;
+        if (txBuffer != null) {
+            serviceBuffers();
+        }
     }
 
     /**
@@ -61,6 +61,7 @@ public class Acia6551 extends Acia {
             case DATA_REG:
                 return rxRead();
             case STAT_REG:
+                serviceBuffers();
                 return statusReg();
             case CMND_REG:
                 return commandRegister;
@@ -71,6 +72,22 @@ public class Acia6551 extends Acia {
         }
     }
 
+    /**
+     * Peeking at the data register shows the last received character
+     * without clearing the receive buffer, and peeking at the status
+     * register does not move characters to or from the attached buffers.
+     */
+    @Override
+    public int peek(int address) throws MemoryAccessException {
+        if (address == DATA_REG) {
+            return rxChar;
+        }
+        if (address == STAT_REG) {
+            return statusReg();
+        }
+        return read(address);
+    }
+
     @Override
     public void write(int address, int data) throws MemoryAccessException {
         switch (address) {
@@ -181,10 +198,10 @@ public class Acia6551 extends Acia {
     public int statusReg() {
         // TODO: Parity Error, Framing Error, DTR, DSR, and Interrupt flags.
         int stat = 0;
-        if (rxFull && System.nanoTime() >= (lastRxRead + baudRateDelay)) {
+        if (rxReady()) {
             stat |= 0x08;
         }
-        if (txEmpty && System.nanoTime() >= (lastTxWrite + baudRateDelay)) {
+        if (txReady()) {
             stat |= 0x10;
         }
         if (overrun) {
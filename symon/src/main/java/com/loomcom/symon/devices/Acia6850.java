@@ -58,6 +58,7 @@ public class Acia6850 extends Acia {
             case RX_REG:
                 return rxRead();
             case STAT_REG:
+                serviceBuffers();
                 return statusReg();
 
             default:
@@ -65,6 +66,22 @@ public class Acia6850 extends Acia {
         }
     }
 
+    /**
+     * Peeking at the receive register shows the last received character
+     * without clearing the receive buffer, and peeking at the status
+     * register does not move characters to or from the attached buffers.
+     */
+    @Override
+    public int peek(int address) throws MemoryAccessException {
+        if (address == RX_REG) {
+            return rxChar;
+        }
+        if (address == STAT_REG) {
+            return statusReg();
+        }
+        return read(address);
+    }
+
     @Override
     public void write(int address, int data) throws MemoryAccessException {
         switch (address) {
@@ -100,10 +117,10 @@ public class Acia6850 extends Acia {
     public int statusReg() {
         // TODO: Parity Error, Framing Error, DTR, DSR, and Interrupt flags.
         int stat = 0;
-        if (rxFull && System.nanoTime() >= (lastRxRead + baudRateDelay)) {
+        if (rxReady()) {
             stat |= 0x01;
         }
-        if (txEmpty && System.nanoTime() >= (lastTxWrite + baudRateDelay)) {
+        if (txReady()) {
             stat |= 0x02;
         }
         if (overrun) {
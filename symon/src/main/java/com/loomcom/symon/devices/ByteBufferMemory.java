@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.loomcom.symon.devices;
+
+import com.loomcom.symon.exceptions.MemoryAccessException;
+import com.loomcom.symon.exceptions.MemoryRangeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory backed by a {@link ByteBuffer} instead of a byte array. The buffer may
+ * live on the heap, off-heap (direct), or be mapped from a file. Only absolute
+ * get and put are used, so the buffer's position and limit are left alone.
+ * <p/>
+ * The bus has no array to point at, so every access goes through the device.
+ * That makes this slower to run than {@link Memory}, which is still the right
+ * choice for normal ROM and RAM; mapping pays off for very large images and
+ * for RAM whose contents should outlive the simulator.
+ */
+public class ByteBufferMemory extends Memory {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer The buffer to use for storage. Its first
+     *               <code>endAddress - startAddress + 1</code> bytes are used.
+     */
+    public ByteBufferMemory(int startAddress, int endAddress, boolean readOnly, ByteBuffer buffer)
+            throws MemoryRangeException {
+        super(startAddress, endAddress, readOnly, (readOnly ? "RO Memory" : "RW Memory"));
+        if (buffer.capacity() < size) {
+            throw new MemoryRangeException("Buffer of " + buffer.capacity() +
+                                           " bytes is too small for " + size + " bytes of memory.");
+        }
+        this.buffer = buffer;
+    }
+
+    /**
+     * Make memory backed by a newly allocated direct (off-heap) buffer.
+     */
+    public static ByteBufferMemory allocateDirect(int startAddress, int endAddress, boolean readOnly)
+            throws MemoryRangeException {
+        return new ByteBufferMemory(startAddress, endAddress, readOnly,
+                                    ByteBuffer.allocateDirect(endAddress - startAddress + 1));
+    }
+
+    /**
+     * Map a ROM image. The file must be at least as large as the memory, and
+     * is never written.
+     */
+    public static ByteBufferMemory mapROM(int startAddress, int endAddress, File f)
+            throws MemoryRangeException, IOException {
+        return new ByteBufferMemory(startAddress, endAddress, true,
+                                    map(f, endAddress - startAddress + 1, FileChannel.MapMode.READ_ONLY));
+    }
+
+    /**
+     * Map RAM onto a file, creating or growing the file if it is too small.
+     *
+     * @param persistent If true, writes go through to the file, so the
+     *                   contents survive into the next run. If false, the
+     *                   file only supplies the initial contents and writes are
+     *                   private to this mapping (copy-on-write).
+     */
+    public static ByteBufferMemory mapRAM(int startAddress, int endAddress, File f, boolean persistent)
+            throws MemoryRangeException, IOException {
+        int size = endAddress - startAddress + 1;
+        if (f.length() < size) {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.setLength(size);
+            } finally {
+                raf.close();
+            }
+        }
+        return new ByteBufferMemory(startAddress, endAddress, false,
+                                    map(f, size, persistent ? FileChannel.MapMode.READ_WRITE
+                                                            : FileChannel.MapMode.PRIVATE));
+    }
+
+    private static MappedByteBuffer map(File f, int size, FileChannel.MapMode mode)
+            throws MemoryRangeException, IOException {
+        if (f.length() < size) {
+            throw new MemoryRangeException("File " + f + " is smaller than " + size + " bytes.");
+        }
+        // A private mapping still needs a channel opened for writing.
+        RandomAccessFile raf = new RandomAccessFile(f, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            // The mapping stays valid after the channel is closed.
+            return raf.getChannel().map(mode, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Force any writes to a persistent mapping out to its file. Does nothing
+     * for other kinds of buffer.
+     */
+    public void flush() {
+        if (buffer instanceof MappedByteBuffer && !buffer.isReadOnly()) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public void write(int address, int data) throws MemoryAccessException {
+        if (isReadOnly()) {
+            throw new MemoryAccessException("Cannot write to read-only memory at address " + address);
+        }
+        buffer.put(address, (byte) data);
+    }
+
+    @Override
+    public int read(int address) throws MemoryAccessException {
+        return buffer.get(address) & 0xff;
+    }
+
+    @Override
+    public int peek(int address) throws MemoryAccessException {
+        return buffer.get(address) & 0xff;
+    }
+
+    @Override
+    public void peek(int address, byte[] dst, int offset, int length) throws MemoryAccessException {
+        ByteBuffer view = buffer.duplicate();
+        view.position(address);
+        view.get(dst, offset, length);
+    }
+
+    @Override
+    public void load(byte[] src, int offset) throws MemoryRangeException {
+        checkBlock(offset, src.length);
+        checkWritableBuffer();
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(src);
+    }
+
+    @Override
+    public void loadFromFile(File file) throws MemoryRangeException, IOException {
+        if (!file.canRead()) {
+            throw new IOException("Cannot open file " + file);
+        }
+        long fileSize = file.length();
+        if (fileSize > size) {
+            throw new MemoryRangeException("File will not fit in available memory.");
+        }
+        checkWritableBuffer();
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        view.limit((int) fileSize);
+        readFile(file, view);
+    }
+
+    @Override
+    public byte[] dump() {
+        byte[] data = new byte[size];
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        view.get(data);
+        return data;
+    }
+
+    private void checkWritableBuffer() throws MemoryRangeException {
+        if (buffer.isReadOnly()) {
+            throw new MemoryRangeException("Memory is backed by a read-only buffer.");
+        }
+    }
+
+    @Override
+    public void fill(int val) {
+        if (buffer.isReadOnly()) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, (byte) val);
+        }
+    }
+
+    @Override
+    public byte[] getBackingArray() {
+        return null;
+    }
+}
@@ -23,6 +23,8 @@
 
 package com.loomcom.symon.devices;
 
+import com.loomcom.symon.Bus;
+import com.loomcom.symon.EventScheduler;
 import com.loomcom.symon.exceptions.MemoryAccessException;
 import com.loomcom.symon.exceptions.MemoryRangeException;
 
@@ -89,6 +91,20 @@ public class Crtc extends Device {
 
     private Memory memory;
 
+    // Nominal system clock, in Hz, used to turn the cursor blink rate into clock cycles.
+    static final long CLOCK_HZ = 1000000;
+
+    // Whether a blinking cursor is in the visible half of its cycle.
+    private volatile boolean cursorBlinkOn = true;
+
+    private final EventScheduler.Event cursorBlink = new EventScheduler.Event() {
+        @Override
+        public void fire(long cycle) {
+            cursorBlinkOn = !cursorBlinkOn;
+            getBus().getScheduler().schedule(this, cycle + blinkCycles());
+        }
+    };
+
     public Crtc(int deviceAddress, Memory memory) throws MemoryRangeException, IOException {
         super(deviceAddress, deviceAddress + 2, "CRTC");
         this.memory = memory;
@@ -140,11 +156,30 @@ public class Crtc extends Device {
         return null;
     }
 
+    @Override
+    public void setBus(Bus bus) {
+        super.setBus(bus);
+        restartCursorBlink();
+    }
+
     public int getCharAtAddress(int address) throws MemoryAccessException {
         // TODO: Row/Column addressing
         return memory.read(address);
     }
 
+    /**
+     * Copy a run of characters out of video memory in one go, without the
+     * side effects of a CPU read.
+     *
+     * @param address The address of the first character.
+     * @param dst     The array to copy the characters into.
+     * @param offset  The index in <code>dst</code> of the first character.
+     * @param length  The number of characters to copy.
+     */
+    public void getChars(int address, byte[] dst, int offset, int length) throws MemoryAccessException {
+        memory.peek(address, dst, offset, length);
+    }
+
     public int getHorizontalDisplayed() {
         return horizontalDisplayed;
     }
@@ -173,6 +208,16 @@ public class Crtc extends Device {
         return cursorEnabled;
     }
 
+    /**
+     * @return true if the cursor should be drawn right now: it is enabled,
+     *         and either steady or in the visible half of its blink. The
+     *         blink is timed in emulated clock cycles, so it runs at the
+     *         same rate relative to the program whatever the simulator speed.
+     */
+    public boolean isCursorVisible() {
+        return cursorEnabled && (cursorBlinkRate == 0 || cursorBlinkOn);
+    }
+
     public int getStartAddress() {
         return startAddress;
     }
@@ -197,6 +242,30 @@ public class Crtc extends Device {
         return cursorSkew;
     }
 
+    /**
+     * @return The number of clock cycles in each half of the cursor blink.
+     */
+    private long blinkCycles() {
+        return cursorBlinkRate * CLOCK_HZ / 1000;
+    }
+
+    /**
+     * Start the cursor blink again from its visible half, or stop it if the
+     * cursor does not blink.
+     */
+    private void restartCursorBlink() {
+        cursorBlinkOn = true;
+        Bus bus = getBus();
+        if (bus == null || bus.getScheduler() == null) {
+            return;
+        }
+        if (cursorBlinkRate > 0) {
+            bus.getScheduler().schedule(cursorBlink, bus.getCycleCount() + blinkCycles());
+        } else {
+            bus.getScheduler().cancel(cursorBlink);
+        }
+    }
+
     private void setCurrentRegister(int registerNumber) {
         this.currentRegister = registerNumber;
     }
@@ -244,6 +313,7 @@ public class Crtc extends Device {
                         cursorBlinkRate = 1000;
                         break;
                 }
+                restartCursorBlink();
                 break;
             case CURSOR_END:
                 cursorStopLine = data & 0x1f;
@@ -76,6 +76,42 @@ public abstract class Device implements Comparable<Device> {
 
     public abstract String toString();
 
+    /**
+     * Read a register or memory location without any of the side effects a
+     * CPU read may have, such as clearing a receive buffer or advancing a data
+     * pointer. This is what debuggers and UI components should use. Devices
+     * whose reads change state must override this; the default simply reads.
+     *
+     * @param address The address relative to the start of this device.
+     * @return The byte at that address.
+     */
+    public int peek(int address) throws MemoryAccessException {
+        return read(address);
+    }
+
+    /**
+     * Copy a run of bytes starting at <code>address</code> into <code>dst</code>,
+     * without side effects.
+     *
+     * @param address The address relative to the start of this device.
+     * @param dst     The destination array.
+     * @param offset  The index in <code>dst</code> to copy to.
+     * @param length  The number of bytes to copy.
+     */
+    public void peek(int address, byte[] dst, int offset, int length) throws MemoryAccessException {
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = (byte) peek(address + i);
+        }
+    }
+
+    /**
+     * Release any resources the device holds, such as open files, writing
+     * back anything it has buffered. Called when the machine is shut down.
+     * The default does nothing.
+     */
+    public void shutdown() {
+    }
+
     public Bus getBus() {
         return this.bus;
     }
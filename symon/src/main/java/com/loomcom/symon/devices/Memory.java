@@ -24,6 +24,8 @@
 package com.loomcom.symon.devices;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import com.loomcom.symon.exceptions.*;
@@ -31,7 +33,7 @@ import com.loomcom.symon.exceptions.*;
 public class Memory extends Device {
 
     private boolean readOnly;
-    private int[] mem;
+    private byte[] mem;
 
     /* Initialize all locations to 0x00 (BRK) */
     private static final int DEFAULT_FILL = 0x00;
@@ -40,7 +42,7 @@ public class Memory extends Device {
             throws MemoryRangeException {
         super(startAddress, endAddress, (readOnly ? "RO Memory" : "RW Memory"));
         this.readOnly = readOnly;
-        this.mem = new int[this.size];
+        this.mem = new byte[this.size];
         this.fill(DEFAULT_FILL);
     }
 
@@ -48,6 +50,16 @@ public class Memory extends Device {
         this(startAddress, endAddress, false);
     }
 
+    /**
+     * For subclasses that keep their contents somewhere other than a byte array.
+     * They must override every method that touches the contents.
+     */
+    protected Memory(int startAddress, int endAddress, boolean readOnly, String name)
+            throws MemoryRangeException {
+        super(startAddress, endAddress, name);
+        this.readOnly = readOnly;
+    }
+
     public static Memory makeROM(int startAddress, int endAddress, File f) throws MemoryRangeException, IOException {
         Memory memory = new Memory(startAddress, endAddress, true);
         memory.loadFromFile(f);
@@ -62,44 +74,115 @@ public class Memory extends Device {
         if (readOnly) {
             throw new MemoryAccessException("Cannot write to read-only memory at address " + address);
         } else {
-            this.mem[address] = data;
+            this.mem[address] = (byte) data;
         }
     }
 
     /**
-     * Load the memory from a file.
+     * Load the memory from a file. The file is read straight into the
+     * backing store through a {@link FileChannel}.
      *
      * @param file The file to read an array of bytes from.
-     * @throws MemoryRangeException if the file and memory size do not match.
+     * @throws MemoryRangeException if the file will not fit in memory.
      * @throws IOException if the file read fails.
      */
     public void loadFromFile(File file) throws MemoryRangeException, IOException {
         if (file.canRead()) {
             long fileSize = file.length();
 
-            if (fileSize > mem.length) {
+            if (fileSize > size) {
                 throw new MemoryRangeException("File will not fit in available memory.");
             } else {
-                int i = 0;
-                FileInputStream fis = new FileInputStream(file);
-                BufferedInputStream bis = new BufferedInputStream(fis);
-                DataInputStream dis = new DataInputStream(bis);
-                while (dis.available() != 0) {
-                    mem[i++] = dis.readUnsignedByte();
-                }
+                readFile(file, ByteBuffer.wrap(this.mem, 0, (int) fileSize));
             }
         } else {
             throw new IOException("Cannot open file " + file);
         }
+    }
+
+    /**
+     * Read a file from its start until <code>dst</code> is full.
+     */
+    static void readFile(File file, ByteBuffer dst) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            while (dst.hasRemaining()) {
+                if (channel.read(dst) < 0) {
+                    throw new EOFException("Unexpected end of file " + file);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+    }
 
+    /**
+     * Copy a block of data into memory. This works on read-only memory too,
+     * which is how ROM images get loaded.
+     *
+     * @param src    The data to copy.
+     * @param offset The address, relative to the start of this device, to copy it to.
+     * @throws MemoryRangeException if the data does not fit.
+     */
+    public void load(byte[] src, int offset) throws MemoryRangeException {
+        checkBlock(offset, src.length);
+        System.arraycopy(src, 0, this.mem, offset, src.length);
+    }
+
+    /**
+     * @return A copy of the entire contents of this memory.
+     */
+    public byte[] dump() {
+        return Arrays.copyOf(this.mem, size);
+    }
+
+    void checkBlock(int offset, int length) throws MemoryRangeException {
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new MemoryRangeException("Block of " + length + " bytes at offset " + offset +
+                                           " does not fit in " + size + " bytes of memory.");
+        }
     }
 
     public int read(int address) throws MemoryAccessException {
-        return this.mem[address];
+        return this.mem[address] & 0xff;
+    }
+
+    @Override
+    public int peek(int address) throws MemoryAccessException {
+        return this.mem[address] & 0xff;
+    }
+
+    @Override
+    public void peek(int address, byte[] dst, int offset, int length) throws MemoryAccessException {
+        System.arraycopy(this.mem, address, dst, offset, length);
     }
 
     public void fill(int val) {
-        Arrays.fill(this.mem, val);
+        Arrays.fill(this.mem, (byte) val);
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * The array backing this memory. The bus reads and writes it directly for
+     * pages that lie entirely inside this device, bypassing read() and write(),
+     * if {@link #isFastPathSafe()}. Subclasses with no backing array return
+     * null, and are always accessed through the device.
+     */
+    public byte[] getBackingArray() {
+        return mem;
+    }
+
+    /**
+     * Whether the bus may bypass read() and write() and use the backing array
+     * directly. Only true for plain Memory, so that a subclass overriding
+     * read() or write() is never skipped. Subclasses that are happy to be
+     * bypassed may override this to return true.
+     */
+    public boolean isFastPathSafe() {
+        return getClass() == Memory.class;
     }
 
     public String toString() {
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.loomcom.symon.devices;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An SD card image, as seen by the {@link SdController}.
+ * <p/>
+ * The image is kept open until the card is closed. Sectors are held in a
+ * small LRU cache: reads of recently used sectors never touch the file, and
+ * written sectors are only written back when they fall out of the cache or
+ * the card is flushed or closed. Alternatively the image can be memory
+ * mapped, in which case sectors are copied straight to and from the mapping
+ * and the cache is not used.
+ * <p/>
+ * A card may be write protected, in which case writes are ignored. It may
+ * also have a copy-on-write overlay: the image itself is then never changed,
+ * and written sectors go to the same offset in the overlay file instead, which
+ * stays sparse. The sectors held in the overlay are recorded in a second file
+ * alongside it, with ".map" appended to its name, so that the overlay can be
+ * used again later. Any number of cards may share one image this way, as long
+ * as each has its own overlay.
+ */
+public class SdCard {
+
+    public static final int SECTOR_SIZE = 512;
+
+    private final static Logger logger = Logger.getLogger(SdCard.class.getName());
+
+    // Number of sectors held in the cache
+    static final int CACHE_SECTORS = 256;
+
+    // Size of each mapped region of the image. A single mapping can not be
+    // larger than 2GB, so the image is mapped a region at a time as needed.
+    static final long MAP_REGION_SIZE = 1L << 24;
+
+    private final File imageFile;
+    private final boolean readOnly;
+    private final boolean mapped;
+
+    private FileChannel channel;
+    private FileChannel overlay;
+    private File overlayMapFile;
+
+    // Sectors held in the overlay, and whether that has changed since it was saved
+    private BitSet overlaid = new BitSet();
+    private boolean overlaidChanged;
+
+    /**
+     * A cached sector, and whether it has changed since it was read.
+     */
+    private static class Sector {
+        final byte[] data;
+        boolean dirty;
+
+        Sector(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    // Cached sectors by byte offset, least recently used first
+    private final LinkedHashMap<Long, Sector> cache = new LinkedHashMap<Long, Sector>(CACHE_SECTORS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Sector> eldest) {
+            if (size() <= CACHE_SECTORS) {
+                return false;
+            }
+            if (eldest.getValue().dirty) {
+                writeBack(eldest.getKey(), eldest.getValue());
+            }
+            return true;
+        }
+    };
+
+    // Mapped regions of the image by starting offset
+    private final HashMap<Long, MappedByteBuffer> regions = new HashMap<Long, MappedByteBuffer>();
+
+
+    public SdCard(File imageFile) {
+        this(imageFile, null, false, false);
+    }
+
+    public SdCard(File imageFile, boolean mapped) {
+        this(imageFile, null, false, mapped);
+    }
+
+    /**
+     * @param imageFile   The card image. If it does not exist, the card
+     *                    reads as zeros.
+     * @param overlayFile The copy-on-write overlay, or null to write to the
+     *                    image itself. It is created if it does not exist.
+     * @param readOnly    Whether the card is write protected.
+     * @param mapped      Whether to memory map the image rather than caching
+     *                    sectors read through the file.
+     */
+    public SdCard(File imageFile, File overlayFile, boolean readOnly, boolean mapped) {
+        this.imageFile = imageFile;
+        this.readOnly = readOnly;
+        this.mapped = mapped;
+
+        if (imageFile.exists()) {
+            try {
+                String mode = (readOnly || overlayFile != null) ? "r" : "rw";
+                this.channel = new RandomAccessFile(imageFile, mode).getChannel();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Could not open SD card image '" + imageFile + "'", ex);
+            }
+        } else {
+            logger.log(Level.INFO, "Could not find SD card image '" + imageFile + "'");
+        }
+
+        if (overlayFile != null && !(readOnly && !overlayFile.exists())) {
+            openOverlay(overlayFile);
+        }
+    }
+
+    private void openOverlay(File overlayFile) {
+        overlayMapFile = new File(overlayFile.getPath() + ".map");
+        try {
+            this.overlay = new RandomAccessFile(overlayFile, readOnly ? "r" : "rw").getChannel();
+            if (overlayMapFile.exists()) {
+                overlaid = BitSet.valueOf(Files.readAllBytes(overlayMapFile.toPath()));
+            } else if (overlay.size() > 0 && !readOnly) {
+                logger.log(Level.WARNING, "No sector map for SD card overlay '" + overlayFile + "', discarding it");
+                overlay.truncate(0);
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Could not open SD card overlay '" + overlayFile + "'", ex);
+        }
+    }
+
+    public File getImageFile() {
+        return imageFile;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Read the sector at the given byte offset.
+     */
+    public void read(long offset, byte[] dst) {
+        if (mapped) {
+            fetch(offset, dst);
+        } else {
+            System.arraycopy(getSector(offset).data, 0, dst, 0, SECTOR_SIZE);
+        }
+    }
+
+    /**
+     * Write the sector at the given byte offset. Does nothing if the card is
+     * write protected.
+     */
+    public void write(long offset, byte[] src) {
+        if (readOnly) {
+            return;
+        }
+        if (mapped) {
+            store(offset, src);
+        } else {
+            Sector sector = cache.get(offset);
+            if (sector == null) {
+                sector = new Sector(new byte[SECTOR_SIZE]);
+                cache.put(offset, sector);
+            }
+            System.arraycopy(src, 0, sector.data, 0, SECTOR_SIZE);
+            sector.dirty = true;
+        }
+    }
+
+    /**
+     * Write every changed sector back to the image or overlay.
+     */
+    public void flush() {
+        for (Map.Entry<Long, Sector> entry : cache.entrySet()) {
+            if (entry.getValue().dirty) {
+                writeBack(entry.getKey(), entry.getValue());
+            }
+        }
+        for (MappedByteBuffer region : regions.values()) {
+            region.force();
+        }
+        if (overlay != null && overlaidChanged) {
+            try {
+                // The sectors must be on disk before the map says they are there
+                overlay.force(false);
+                Files.write(overlayMapFile.toPath(), overlaid.toByteArray());
+                overlaidChanged = false;
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "could not write SD card overlay map", ex);
+            }
+        }
+    }
+
+    /**
+     * Write back any changed sectors and close the image. The card reads as
+     * zeros afterwards.
+     */
+    public void close() {
+        flush();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (overlay != null) {
+                overlay.close();
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "could not close SD image file", ex);
+        }
+        channel = null;
+        overlay = null;
+        cache.clear();
+        regions.clear();
+    }
+
+    /**
+     * Fetch a sector from the cache, reading it if needed.
+     */
+    private Sector getSector(long offset) {
+        Sector sector = cache.get(offset);
+        if (sector == null) {
+            sector = new Sector(new byte[SECTOR_SIZE]);
+            fetch(offset, sector.data);
+            cache.put(offset, sector);
+        }
+        return sector;
+    }
+
+    private void writeBack(long offset, Sector sector) {
+        if (store(offset, sector.data)) {
+            sector.dirty = false;
+        }
+    }
+
+    /**
+     * Read a sector from the overlay if it is there, or else from the image.
+     */
+    private void fetch(long offset, byte[] dst) {
+        if (overlay != null && overlaid.get((int) (offset / SECTOR_SIZE))) {
+            readFromChannel(overlay, offset, dst);
+        } else if (channel == null) {
+            Arrays.fill(dst, (byte) 0);
+        } else {
+            MappedByteBuffer region = mapped ? getRegion(offset) : null;
+            if (region != null) {
+                region.position((int) (offset & (MAP_REGION_SIZE - 1)));
+                region.get(dst);
+            } else {
+                readFromChannel(channel, offset, dst);
+            }
+        }
+    }
+
+    /**
+     * Write a sector to the overlay if there is one, or else to the image.
+     */
+    private boolean store(long offset, byte[] src) {
+        if (overlay != null) {
+            if (!writeToChannel(overlay, offset, src)) {
+                return false;
+            }
+            overlaid.set((int) (offset / SECTOR_SIZE));
+            overlaidChanged = true;
+            return true;
+        } else if (channel == null) {
+            return true;
+        }
+
+        MappedByteBuffer region = mapped ? getRegion(offset) : null;
+        if (region != null) {
+            region.position((int) (offset & (MAP_REGION_SIZE - 1)));
+            region.put(src);
+            return true;
+        }
+        return writeToChannel(channel, offset, src);
+    }
+
+    /**
+     * Fetch the mapped region holding the sector at the given offset, mapping
+     * it if needed. Only the part of a region that lies within the image is
+     * mapped, so that mapping never grows the file. Returns null if the sector
+     * lies beyond the end of the image.
+     */
+    private MappedByteBuffer getRegion(long offset) {
+        long start = offset & ~(MAP_REGION_SIZE - 1);
+        long needed = offset - start + SECTOR_SIZE;
+        MappedByteBuffer region = regions.get(start);
+        if (region == null || region.capacity() < needed) {
+            try {
+                long length = Math.min(MAP_REGION_SIZE, channel.size() - start);
+                if (length < needed) {
+                    return null;
+                }
+                FileChannel.MapMode mode = (readOnly || overlay != null) ?
+                        FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+                region = channel.map(mode, start, length);
+                regions.put(start, region);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "could not map SD image file", ex);
+                return null;
+            }
+        }
+        return region;
+    }
+
+    private void readFromChannel(FileChannel source, long offset, byte[] dst) {
+        Arrays.fill(dst, (byte) 0);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(dst);
+            while (buf.hasRemaining()) {
+                if (source.read(buf, offset + buf.position()) < 0) {
+                    logger.log(Level.WARNING, "not enough data to fill read buffer from SD image file");
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "could not fill read buffer from SD image file", ex);
+        }
+    }
+
+    private boolean writeToChannel(FileChannel target, long offset, byte[] src) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(src);
+            while (buf.hasRemaining()) {
+                target.write(buf, offset + buf.position());
+            }
+            return true;
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "could not write data back to SD image file!", ex);
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return imageFile.getPath();
+    }
+}
@@ -29,15 +29,29 @@ import com.loomcom.symon.exceptions.MemoryAccessException;
 import com.loomcom.symon.exceptions.MemoryRangeException;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Arrays;
 
 /**
  * Emulation for the SD-card controller of the MULTICOMP system.
  * Neiter comlete nor correct.
+ * <p/>
+ * The controller holds one or more {@link SdCard}s, each addressed by a
+ * logical unit number (LUN). Registers:
+ * <ul>
+ * <li>0: data</li>
+ * <li>1: command (write) and status (read)</li>
+ * <li>2-4: LBA, least significant byte first</li>
+ * <li>5: LUN of the card to use. Cards that are not present read as zeros.</li>
+ * </ul>
+ * Commands written to the command register:
+ * <ul>
+ * <li>0: read the sector at the current LBA</li>
+ * <li>1: write the sector at the current LBA</li>
+ * <li>2: read sectors one after another, starting at the current LBA</li>
+ * <li>3: write sectors one after another, starting at the current LBA</li>
+ * </ul>
+ * A multi-block transfer carries on into the next sector each time 512 bytes
+ * have been transferred, until any other command is written.
  */
 public class SdController extends Device {
 
@@ -48,13 +62,14 @@ public class SdController extends Device {
     }
 
     public static final int CONTROLLER_SIZE = 8;
-    private final int SECTOR_SIZE = 512;
-    private final static Logger logger = Logger.getLogger(SdController.class.getName());
+    private final int SECTOR_SIZE = SdCard.SECTOR_SIZE;
 
-    private File sdImageFile;
+    private final SdCard[] cards;
+    private int lun;
     private int lba0, lba1, lba2;
-    private int position;
+    private long position;
     private Status status = Status.IDLE;
+    private boolean multiBlock;
 
     private final byte[] readBuffer = new byte[SECTOR_SIZE];
     private final byte[] writeBuffer = new byte[SECTOR_SIZE];
@@ -63,15 +78,39 @@ public class SdController extends Device {
 
 
     public SdController(int address) throws MemoryRangeException {
-        super(address, address + CONTROLLER_SIZE - 1, "SDCONTROLLER");
+        this(address, new File("sd.img"));
+    }
 
-        sdImageFile = new File("sd.img");
-        if (!sdImageFile.exists()) {
-            sdImageFile = null;
-            logger.log(Level.INFO, "Could not find SD card image 'sd.img'");
-        }
+    public SdController(int address, File sdImageFile) throws MemoryRangeException {
+        this(address, new SdCard(sdImageFile));
+    }
+
+    /**
+     * @param address     The base address of the controller.
+     * @param sdImageFile The SD card image. If it does not exist, the
+     *                    controller reads zeros and ignores writes.
+     * @param mapped      Whether to memory map the image rather than caching
+     *                    sectors read through the file.
+     */
+    public SdController(int address, File sdImageFile, boolean mapped) throws MemoryRangeException {
+        this(address, new SdCard(sdImageFile, mapped));
+    }
+
+    /**
+     * @param address The base address of the controller.
+     * @param cards   The cards, in LUN order.
+     */
+    public SdController(int address, SdCard... cards) throws MemoryRangeException {
+        super(address, address + CONTROLLER_SIZE - 1, "SDCONTROLLER");
+        this.cards = cards.clone();
     }
 
+    /**
+     * @return The card with the given LUN, or null if there is none.
+     */
+    public SdCard getCard(int lun) {
+        return lun < cards.length ? cards[lun] : null;
+    }
 
     @Override
     public void write(int address, int data) throws MemoryAccessException {
@@ -90,6 +129,10 @@ public class SdController extends Device {
                 return;
             case 4:
                 this.lba2 = data;
+                return;
+            case 5:
+                this.lun = data;
+                this.status = Status.IDLE;
         }
     }
 
@@ -100,6 +143,26 @@ public class SdController extends Device {
                 return readData();
             case 1:
                 return readStatus();
+            case 5:
+                return lun;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Peeking at the data register shows the next byte to be read without
+     * advancing through the sector.
+     */
+    @Override
+    public int peek(int address) throws MemoryAccessException {
+        switch (address) {
+            case 0:
+                return status == Status.READ ? readBuffer[readPosition] & 0xff : 0;
+            case 1:
+                return readStatus();
+            case 5:
+                return lun;
             default:
                 return 0;
         }
@@ -111,28 +174,52 @@ public class SdController extends Device {
         this.position <<= 9;
     }
 
-    private void prepareRead() {
+    private void loadSector() {
+        SdCard card = getCard(lun);
+        if (card != null) {
+            card.read(position, readBuffer);
+        } else {
+            Arrays.fill(readBuffer, (byte) 0);
+        }
+    }
+
+    private void storeSector() {
+        SdCard card = getCard(lun);
+        if (card != null) {
+            card.write(position, writeBuffer);
+        }
+    }
+
+    /**
+     * Write every changed sector on every card back to its image.
+     */
+    public void flush() {
+        for (SdCard card : cards) {
+            card.flush();
+        }
+    }
+
+    /**
+     * Write back any changed sectors and close every card.
+     */
+    @Override
+    public void shutdown() {
+        for (SdCard card : cards) {
+            card.close();
+        }
+    }
+
+    private void prepareRead(boolean multiBlock) {
         this.status = Status.READ;
+        this.multiBlock = multiBlock;
         this.readPosition = 0;
         computePosition();
-
-        if (sdImageFile != null) {
-            try {
-                FileInputStream fis = new FileInputStream(sdImageFile);
-                fis.skip(this.position);
-                int read = fis.read(readBuffer);
-                if (read < SECTOR_SIZE) {
-                    logger.log(Level.WARNING, "not enough data to fill read buffer from SD image file");
-                }
-                fis.close();
-            } catch (IOException ex) {
-                logger.log(Level.WARNING, "could not fill read buffer from SD image file", ex);
-            }
-        }
+        loadSector();
     }
 
-    private void prepareWrite() {
+    private void prepareWrite(boolean multiBlock) {
         this.status = Status.WRITE;
+        this.multiBlock = multiBlock;
         this.writePosition = 0;
         computePosition();
     }
@@ -146,7 +233,13 @@ public class SdController extends Device {
         int data = readBuffer[readPosition++];
 
         if (readPosition >= SECTOR_SIZE) {
-            this.status = Status.IDLE;
+            if (multiBlock) {
+                position += SECTOR_SIZE;
+                readPosition = 0;
+                loadSector();
+            } else {
+                this.status = Status.IDLE;
+            }
         }
 
         return data;
@@ -160,18 +253,14 @@ public class SdController extends Device {
         writeBuffer[writePosition++] = (byte) data;
 
         if (writePosition >= SECTOR_SIZE) {
-            if (sdImageFile != null) {
-                try {
-                    RandomAccessFile raf = new RandomAccessFile(sdImageFile, "rw");
-                    raf.skipBytes(this.position);
-                    raf.write(writeBuffer, 0, writeBuffer.length);
-                    raf.close();
-                } catch (IOException ex) {
-                    logger.log(Level.WARNING, "could not write data back to SD image file!", ex);
-                }
-            }
+            storeSector();
 
-            this.status = Status.IDLE;
+            if (multiBlock) {
+                position += SECTOR_SIZE;
+                writePosition = 0;
+            } else {
+                this.status = Status.IDLE;
+            }
         }
 
     }
@@ -192,10 +281,16 @@ public class SdController extends Device {
     private void writeCommand(int data) {
         switch (data) {
             case 0:
-                prepareRead();
+                prepareRead(false);
                 return;
             case 1:
-                prepareWrite();
+                prepareWrite(false);
+                return;
+            case 2:
+                prepareRead(true);
+                return;
+            case 3:
+                prepareWrite(true);
                 return;
             default:
                 this.status = Status.IDLE;
@@ -23,13 +23,25 @@
 
 package com.loomcom.symon.devices;
 
+import com.loomcom.symon.Bus;
+import com.loomcom.symon.EventScheduler;
 import com.loomcom.symon.exceptions.MemoryAccessException;
 import com.loomcom.symon.exceptions.MemoryRangeException;
 
 /**
- * Very basic implementation of a MOS 6522 VIA.
- *
- * TODO: Implement timers as threads.
+ * Implementation of a MOS 6522 VIA, with both timers, the shift register
+ * and interrupts.
+ * <p/>
+ * The timers are not stepped. Each one remembers the cycle it was loaded on
+ * and works out its count from the CPU's cycle count when read, and schedules
+ * an event on the bus's {@link EventScheduler} for the cycle it runs out. This
+ * makes timing exact and deterministic however fast the simulator runs, and
+ * costs nothing while no timer is running.
+ * <p/>
+ * Nothing is connected to the port pins or the control lines, so inputs read
+ * as high, the CA1/CA2/CB1/CB2 interrupts never occur, and the shift register
+ * only runs in the modes clocked by Timer 2 or the system clock. Timer 2 does
+ * not count PB6 pulses, and Timer 1 does not drive PB7.
  */
 public class Via6522 extends Pia {
     public static final int VIA_SIZE = 16;
@@ -39,71 +51,336 @@ public class Via6522 extends Pia {
         T2C_L, T2C_H, SR, ACR, PCR, IFR, IER, ORA_H
     }
 
+    private static final Register[] REGISTERS = Register.values();
+
+    // Interrupt flag and enable bits
+    static final int IRQ_CA2 = 0x01;
+    static final int IRQ_CA1 = 0x02;
+    static final int IRQ_SR  = 0x04;
+    static final int IRQ_CB2 = 0x08;
+    static final int IRQ_CB1 = 0x10;
+    static final int IRQ_T2  = 0x20;
+    static final int IRQ_T1  = 0x40;
+    static final int IRQ_ANY = 0x80;
+
+    // Auxiliary control register bits
+    private static final int ACR_T1_FREE_RUN    = 0x40;
+    private static final int ACR_T2_PULSE_COUNT = 0x20;
+
+    // Shift register modes, from bits 2-4 of the ACR
+    private static final int SR_IN_T2    = 1;
+    private static final int SR_IN_PHI2  = 2;
+    private static final int SR_OUT_T2   = 5;
+    private static final int SR_OUT_PHI2 = 6;
+
+    // Nothing drives the port pins, so they read as high
+    private static final int PORT_INPUT = 0xff;
+
+    private int ora, orb, ddra, ddrb;
+    private int acr, pcr;
+    private int ifr, ier;
+    private int sr;
+    private boolean irqActive = false;
+
+    // Timer 1 counts down from t1Start, starting on cycle t1Base
+    private int t1Latch;
+    private int t1Start;
+    private long t1Base;
+
+    // Timer 2 counts down from t2Start, starting on cycle t2Base, unless it is counting pulses
+    private int t2LatchLow;
+    private int t2Start;
+    private long t2Base;
+
+    private final EventScheduler.Event t1Timeout = new EventScheduler.Event() {
+        @Override
+        public void fire(long cycle) {
+            if ((acr & ACR_T1_FREE_RUN) != 0) {
+                // The counter shows $FFFF for a cycle, then reloads from the latch
+                t1Start = t1Latch + 1;
+                t1Base = cycle;
+                scheduleAt(this, cycle + t1Latch + 2);
+            }
+            setFlags(IRQ_T1);
+        }
+    };
+
+    private final EventScheduler.Event t2Timeout = new EventScheduler.Event() {
+        @Override
+        public void fire(long cycle) {
+            setFlags(IRQ_T2);
+        }
+    };
+
+    private final EventScheduler.Event shiftDone = new EventScheduler.Event() {
+        @Override
+        public void fire(long cycle) {
+            int mode = shiftMode();
+            if (mode == SR_IN_T2 || mode == SR_IN_PHI2) {
+                // CB2 is not connected, so every bit shifted in is a one
+                sr = 0xff;
+            }
+            // Shifting out rotates each bit back in, leaving the register as it was
+            setFlags(IRQ_SR);
+        }
+    };
+
     public Via6522(int address) throws MemoryRangeException {
         super(address, address + VIA_SIZE - 1, "MOS 6522 VIA");
     }
 
     @Override
     public void write(int address, int data) throws MemoryAccessException {
-        Register[] registers = Register.values();
-
-        if (address >= registers.length) {
-            throw new MemoryAccessException("Unknown register: " + address);
-        }
-
-        Register r = registers[address];
-
-        switch (r) {
-            case ORA:
+        switch (register(address)) {
             case ORB:
-            case DDRA:
+                orb = data;
+                clearFlags(IRQ_CB1 | IRQ_CB2);
+                break;
+            case ORA:
+                ora = data;
+                clearFlags(IRQ_CA1 | IRQ_CA2);
+                break;
+            case ORA_H:
+                ora = data;
+                break;
             case DDRB:
+                ddrb = data;
+                break;
+            case DDRA:
+                ddra = data;
+                break;
             case T1C_L:
-            case T1C_H:
             case T1L_L:
+                t1Latch = (t1Latch & 0xff00) | data;
+                break;
+            case T1C_H:
+                t1Latch = (data << 8) | (t1Latch & 0xff);
+                t1Start = t1Latch;
+                t1Base = cycleCount();
+                scheduleAt(t1Timeout, t1Base + t1Latch + 1);
+                clearFlags(IRQ_T1);
+                break;
             case T1L_H:
+                t1Latch = (data << 8) | (t1Latch & 0xff);
+                clearFlags(IRQ_T1);
+                break;
             case T2C_L:
+                t2LatchLow = data;
+                break;
             case T2C_H:
+                t2Start = (data << 8) | t2LatchLow;
+                t2Base = cycleCount();
+                if ((acr & ACR_T2_PULSE_COUNT) == 0) {
+                    scheduleAt(t2Timeout, t2Base + t2Start + 1);
+                }
+                clearFlags(IRQ_T2);
+                break;
             case SR:
+                sr = data;
+                startShift();
+                break;
             case ACR:
+                setAuxiliaryControl(data);
+                break;
             case PCR:
+                pcr = data;
+                break;
             case IFR:
+                clearFlags(data & ~IRQ_ANY);
+                break;
             case IER:
-            case ORA_H:
-            default:
+                if ((data & IRQ_ANY) != 0) {
+                    ier |= data & ~IRQ_ANY;
+                } else {
+                    ier &= ~data;
+                }
+                updateIrq();
+                break;
         }
     }
 
     @Override
     public int read(int address) throws MemoryAccessException {
-        Register[] registers = Register.values();
+        Register r = register(address);
+        int value = readRegister(r);
 
-        if (address >= registers.length) {
-            throw new MemoryAccessException("Unknown register: " + address);
+        switch (r) {
+            case ORB:
+                clearFlags(IRQ_CB1 | IRQ_CB2);
+                break;
+            case ORA:
+                clearFlags(IRQ_CA1 | IRQ_CA2);
+                break;
+            case T1C_L:
+                clearFlags(IRQ_T1);
+                break;
+            case T2C_L:
+                clearFlags(IRQ_T2);
+                break;
+            case SR:
+                startShift();
+                break;
+            default:
+                break;
         }
 
-        Register r = registers[address];
+        return value;
+    }
+
+    /**
+     * Peeking shows the same values as reading, without clearing interrupt
+     * flags or starting the shift register.
+     */
+    @Override
+    public int peek(int address) throws MemoryAccessException {
+        return readRegister(register(address));
+    }
+
+    private Register register(int address) throws MemoryAccessException {
+        if (address < 0 || address >= REGISTERS.length) {
+            throw new MemoryAccessException("Unknown register: " + address);
+        }
+        return REGISTERS[address];
+    }
 
+    private int readRegister(Register r) {
         switch (r) {
-            case ORA:
             case ORB:
-            case DDRA:
+                return (orb & ddrb) | (PORT_INPUT & ~ddrb);
+            case ORA:
+            case ORA_H:
+                return (ora & ddra) | (PORT_INPUT & ~ddra);
             case DDRB:
+                return ddrb;
+            case DDRA:
+                return ddra;
             case T1C_L:
+                return getTimer1() & 0xff;
             case T1C_H:
+                return getTimer1() >> 8;
             case T1L_L:
+                return t1Latch & 0xff;
             case T1L_H:
+                return t1Latch >> 8;
             case T2C_L:
+                return getTimer2() & 0xff;
             case T2C_H:
+                return getTimer2() >> 8;
             case SR:
+                return sr;
             case ACR:
+                return acr;
             case PCR:
+                return pcr;
             case IFR:
+                return ifr;
             case IER:
-            case ORA_H:
+                return ier | IRQ_ANY;
             default:
+                return 0;
         }
+    }
+
+    /**
+     * @return The current Timer 1 count.
+     */
+    public int getTimer1() {
+        return (int) (t1Start - (cycleCount() - t1Base)) & 0xffff;
+    }
+
+    /**
+     * @return The current Timer 2 count.
+     */
+    public int getTimer2() {
+        if ((acr & ACR_T2_PULSE_COUNT) != 0) {
+            return t2Start;
+        }
+        return (int) (t2Start - (cycleCount() - t2Base)) & 0xffff;
+    }
 
-        return 0;
+    private void setAuxiliaryControl(int data) {
+        boolean wasCounting = (acr & ACR_T2_PULSE_COUNT) != 0;
+        boolean counting = (data & ACR_T2_PULSE_COUNT) != 0;
+        if (counting && !wasCounting) {
+            // Hold Timer 2 where it is, since there are no pulses to count
+            t2Start = getTimer2();
+            cancel(t2Timeout);
+        } else if (wasCounting && !counting) {
+            t2Base = cycleCount();
+        }
+        acr = data;
+    }
+
+    private int shiftMode() {
+        return (acr >> 2) & 0x07;
+    }
+
+    /**
+     * Start shifting eight bits, in the modes that have an internal clock.
+     * Each bit takes two cycles of the system clock, or two Timer 2 periods.
+     */
+    private void startShift() {
+        clearFlags(IRQ_SR);
+        switch (shiftMode()) {
+            case SR_IN_PHI2:
+            case SR_OUT_PHI2:
+                scheduleAt(shiftDone, cycleCount() + 16);
+                break;
+            case SR_IN_T2:
+            case SR_OUT_T2:
+                scheduleAt(shiftDone, cycleCount() + 16 * (t2LatchLow + 2));
+                break;
+            default:
+                cancel(shiftDone);
+                break;
+        }
+    }
+
+    private void setFlags(int flags) {
+        ifr |= flags;
+        updateIrq();
+    }
+
+    private void clearFlags(int flags) {
+        ifr &= ~flags;
+        updateIrq();
+    }
+
+    /**
+     * Work out bit 7 of the IFR, and drive the IRQ line to match.
+     */
+    private void updateIrq() {
+        boolean active = (ifr & ier & ~IRQ_ANY) != 0;
+        if (active) {
+            ifr |= IRQ_ANY;
+        } else {
+            ifr &= ~IRQ_ANY;
+        }
+
+        Bus bus = getBus();
+        if (bus != null && active != irqActive) {
+            if (active) {
+                bus.assertIrq(this);
+            } else {
+                bus.clearIrq(this);
+            }
+        }
+        irqActive = active;
+    }
+
+    private long cycleCount() {
+        return getBus() == null ? 0 : getBus().getCycleCount();
+    }
+
+    private void scheduleAt(EventScheduler.Event event, long cycle) {
+        if (getBus() != null) {
+            getBus().getScheduler().schedule(event, cycle);
+        }
+    }
+
+    private void cancel(EventScheduler.Event event) {
+        if (getBus() != null) {
+            getBus().getScheduler().cancel(event);
+        }
     }
 }
@@ -31,6 +31,7 @@ import com.loomcom.symon.devices.Acia6850;
 import com.loomcom.symon.devices.Crtc;
 import com.loomcom.symon.devices.Memory;
 import com.loomcom.symon.devices.Pia;
+import com.loomcom.symon.devices.SdCard;
 import com.loomcom.symon.devices.SdController;
 import com.loomcom.symon.exceptions.MemoryRangeException;
 import java.io.File;
@@ -65,10 +66,21 @@ public class MulticompMachine implements Machine {
     private final Cpu    cpu;
     private final Acia   acia;
     private final Memory ram;
+    private final SdController sdController;
     private       Memory rom;
 
 
+    /**
+     * Create a machine using the card image sd.img from the working directory.
+     */
     public MulticompMachine() throws Exception {
+        this(new SdCard(new File("sd.img")));
+    }
+
+    /**
+     * @param cards The SD cards, in LUN order.
+     */
+    public MulticompMachine(SdCard... cards) throws Exception {
         this.bus = new Bus(BUS_BOTTOM, BUS_TOP);
         this.cpu = new Cpu();
         this.ram = new Memory(MEMORY_BASE, MEMORY_BASE + MEMORY_SIZE - 1, false);
@@ -78,7 +90,8 @@ public class MulticompMachine implements Machine {
         bus.addCpu(cpu);
         bus.addDevice(ram);
         bus.addDevice(acia, 1);
-        bus.addDevice(new SdController(SD_BASE), 1);
+        this.sdController = new SdController(SD_BASE, cards);
+        bus.addDevice(sdController, 1);
         
         // TODO: Make this configurable, of course.
         File romImage = new File("rom.bin");
@@ -125,6 +138,10 @@ public class MulticompMachine implements Machine {
         return null;
     }
 
+    public SdController getSdController() {
+        return sdController;
+    }
+
     @Override
     public Memory getRom() {
         return rom;
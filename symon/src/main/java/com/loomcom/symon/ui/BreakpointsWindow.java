@@ -24,7 +24,7 @@
 package com.loomcom.symon.ui;
 
 import com.loomcom.symon.Breakpoints;
-import com.loomcom.symon.util.Utils;
+import com.loomcom.symon.exceptions.MemoryRangeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,7 +43,7 @@ public class BreakpointsWindow extends JFrame {
 
     private static final Logger logger = LoggerFactory.getLogger(BreakpointsWindow.class);
 
-    private static final Dimension FRAME_SIZE = new Dimension(240, 280);
+    private static final Dimension FRAME_SIZE = new Dimension(320, 280);
     private static final String EMPTY_STRING = "";
 
     private JFrame mainWindow;
@@ -69,7 +69,10 @@ public class BreakpointsWindow extends JFrame {
         final JButton removeButton = new JButton("Del");
         removeButton.setEnabled(false);
 
-        final JTextField addTextField = new JTextField(4);
+        // A hex address, a condition such as "A == 0D at C123", or a
+        // watchpoint such as "write 8800"
+        final JTextField addTextField = new JTextField(12);
+        addTextField.setToolTipText("Address, condition (A == 0D at C123) or watchpoint (write 8800)");
 
         final JTable breakpointsTable = new JTable(breakpoints);
         breakpointsTable.setShowGrid(true);
@@ -95,8 +98,6 @@ public class BreakpointsWindow extends JFrame {
         ActionListener addBreakpointListener = new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                int value;
-
                 String newBreakpoint = addTextField.getText();
 
                 if (newBreakpoint == null || newBreakpoint.isEmpty()) {
@@ -104,19 +105,16 @@ public class BreakpointsWindow extends JFrame {
                 }
 
                 try {
-                    value = (Integer.parseInt(addTextField.getText(), 16) & 0xffff);
-                } catch (NumberFormatException ex) {
-                    logger.warn("Can't parse page number {}", newBreakpoint);
+                    breakpoints.add(newBreakpoint);
+                } catch (IllegalArgumentException ex) {
+                    logger.warn("Can't parse breakpoint {}", newBreakpoint);
                     return;
-                }
-
-                if (value < 0) {
+                } catch (MemoryRangeException ex) {
+                    logger.warn("Can't watch {}: {}", newBreakpoint, ex.getMessage());
                     return;
                 }
 
-                breakpoints.addBreakpoint(value);
-
-                logger.debug("Added breakpoint ${}", Utils.wordToHex(value));
+                logger.debug("Added breakpoint {}", newBreakpoint);
 
                 addTextField.setText(EMPTY_STRING);
             }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.loomcom.symon.ui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Character ROM decoded into glyphs that can be copied straight into a
+ * one bit per pixel image, such as a <tt>TYPE_BYTE_BINARY</tt> BufferedImage.
+ * <p>
+ * Characters are 8 pixels wide, so each scan line of a glyph is exactly one
+ * byte of the image, with the leftmost pixel in the high bit. The glyphs are
+ * decoded once for the current number of scan lines per row, and again with
+ * the cursor lines inverted whenever a new cursor shape is used. Drawing a
+ * character is then a copy of one byte per scan line, with no allocation.
+ */
+public class GlyphAtlas {
+
+    public static final int CHAR_WIDTH = 8;
+    public static final int CHAR_HEIGHT = 8;
+    public static final int CHAR_COUNT = 256;
+
+    /**
+     * The Character ROMs available as resources, as pairs of display name
+     * and resource path.
+     */
+    public static final String[][] CHARACTER_ROMS = {
+            {"ASCII", "/ascii.rom"},
+            {"PET", "/pet.rom"},
+            {"PET (ASCII order)", "/mod.rom"},
+            {"CGA", "/cga8.rom"}
+    };
+
+    public static final String DEFAULT_ROM = "/ascii.rom";
+
+    // The first CHAR_COUNT characters of the ROM, CHAR_HEIGHT bytes each
+    private final byte[] rom = new byte[CHAR_COUNT * CHAR_HEIGHT];
+    private final String resource;
+
+    private int scanLinesPerRow;
+    private byte[] glyphs;
+
+    // Glyphs with the cursor lines inverted, for each cursor shape used so far at this number of scan lines
+    private final Map<Integer, byte[]> cursorGlyphs = new HashMap<>();
+    private int cursorShape = -1;
+    private byte[] currentCursorGlyphs;
+
+    /**
+     * Load and decode a Character ROM resource.
+     *
+     * @param resource        The ROM resource to load, such as <tt>/ascii.rom</tt>.
+     * @param scanLinesPerRow The number of scan lines in each row of characters.
+     * @throws IOException If the resource cannot be read.
+     */
+    public GlyphAtlas(String resource, int scanLinesPerRow) throws IOException {
+        this.resource = resource;
+        byte[] raw = readResource(resource);
+        System.arraycopy(raw, 0, rom, 0, Math.min(raw.length, rom.length));
+        setScanLinesPerRow(scanLinesPerRow);
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public int getScanLinesPerRow() {
+        return scanLinesPerRow;
+    }
+
+    /**
+     * Decode the glyphs for a new number of scan lines per row. Scan lines
+     * below the ROM's eight are blank, and any above the row are cut off.
+     */
+    public void setScanLinesPerRow(int scanLinesPerRow) {
+        if (glyphs != null && scanLinesPerRow == this.scanLinesPerRow) {
+            return;
+        }
+        this.scanLinesPerRow = scanLinesPerRow;
+        this.glyphs = new byte[CHAR_COUNT * scanLinesPerRow];
+        int lines = Math.min(CHAR_HEIGHT, scanLinesPerRow);
+        for (int chr = 0; chr < CHAR_COUNT; chr++) {
+            System.arraycopy(rom, chr * CHAR_HEIGHT, glyphs, chr * scanLinesPerRow, lines);
+        }
+        cursorGlyphs.clear();
+        cursorShape = -1;
+        currentCursorGlyphs = null;
+    }
+
+    /**
+     * Select the scan lines covered by the cursor. The inverted glyphs for
+     * each shape are only built the first time it is used.
+     *
+     * @param startLine The first scan line of the cursor.
+     * @param stopLine  The last scan line of the cursor, inclusive.
+     */
+    public void setCursorLines(int startLine, int stopLine) {
+        int shape = (startLine << 8) | stopLine;
+        if (shape == cursorShape) {
+            return;
+        }
+        byte[] inverted = cursorGlyphs.get(shape);
+        if (inverted == null) {
+            inverted = glyphs.clone();
+            int from = Math.min(startLine, scanLinesPerRow);
+            int to = Math.min(stopLine + 1, scanLinesPerRow);
+            for (int chr = 0; chr < CHAR_COUNT; chr++) {
+                int base = chr * scanLinesPerRow;
+                for (int line = from; line < to; line++) {
+                    inverted[base + line] ^= (byte) 0xff;
+                }
+            }
+            cursorGlyphs.put(shape, inverted);
+        }
+        cursorShape = shape;
+        currentCursorGlyphs = inverted;
+    }
+
+    /**
+     * Draw one character into a packed one bit per pixel image.
+     *
+     * @param chr    The character to draw.
+     * @param cursor True to draw the character with the cursor over it.
+     * @param pixels The image data.
+     * @param offset The index in <code>pixels</code> of the byte holding the
+     *               character's top scan line.
+     * @param stride The number of bytes in each line of the image.
+     */
+    public void draw(int chr, boolean cursor, byte[] pixels, int offset, int stride) {
+        byte[] source = (cursor && currentCursorGlyphs != null) ? currentCursorGlyphs : glyphs;
+        int from = (chr & 0xff) * scanLinesPerRow;
+        for (int line = 0; line < scanLinesPerRow; line++) {
+            pixels[offset] = source[from + line];
+            offset += stride;
+        }
+    }
+
+    private static byte[] readResource(String resource) throws IOException {
+        InputStream in = GlyphAtlas.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Character ROM not found: " + resource);
+        }
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                bos.write(buf, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
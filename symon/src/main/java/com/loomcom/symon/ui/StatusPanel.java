@@ -23,8 +23,9 @@
 
 package com.loomcom.symon.ui;
 
-import com.loomcom.symon.Cpu;
 import com.loomcom.symon.CpuState;
+import com.loomcom.symon.exceptions.MemoryAccessException;
+import com.loomcom.symon.util.Utils;
 import com.loomcom.symon.machines.Machine;
 
 import javax.swing.*;
@@ -289,12 +290,20 @@ public class StatusPanel extends JPanel {
     }
 
     /**
-     * Update the display based on the current state of the CPU.
+     * Update the display based on the current state of the CPU. This reads
+     * the live CPU state, so it must only be called while the CPU is stopped.
      */
     public void updateState() {
-        Cpu cpu = machine.getCpu();
-        CpuState cpuState = cpu.getCpuState();
+        updateState(machine.getCpu().getCpuState());
+    }
 
+    /**
+     * Update the display from a copy of the CPU state. This is safe to call
+     * while the CPU is running, as the state is never modified.
+     *
+     * @param cpuState The state to display.
+     */
+    public void updateState(CpuState cpuState) {
         // Update the Processor Status Flag display
         int status = cpuState.getStatusFlag();
 
@@ -309,12 +318,16 @@ public class StatusPanel extends JPanel {
         // Update the register and address displays
 
         // We always want to show the NEXT instruction that will be executed
-        opcodeField.setText(cpu.disassembleNextOp());
-        pcField.setText(cpu.getProgramCounterStatus());
-        spField.setText(cpu.getStackPointerStatus());
-        aField.setText(cpu.getAccumulatorStatus());
-        xField.setText(cpu.getXRegisterStatus());
-        yField.setText(cpu.getYRegisterStatus());
+        try {
+            opcodeField.setText(machine.getCpu().disassembleOpAtAddress(cpuState.pc));
+        } catch (MemoryAccessException ex) {
+            opcodeField.setText("???");
+        }
+        pcField.setText("$" + Utils.wordToHex(cpuState.pc));
+        spField.setText("$" + Utils.byteToHex(cpuState.sp));
+        aField.setText("$" + Utils.byteToHex(cpuState.a));
+        xField.setText("$" + Utils.byteToHex(cpuState.x));
+        yField.setText("$" + Utils.byteToHex(cpuState.y));
 
         repaint();
     }
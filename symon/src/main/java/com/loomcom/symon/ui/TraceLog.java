@@ -21,30 +21,49 @@
  * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
  * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
-
 package com.loomcom.symon.ui;
 
 import com.loomcom.symon.CpuState;
-import com.loomcom.symon.util.FifoRingBuffer;
+import com.loomcom.symon.util.TraceRing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
+import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 /**
- * This frame displays a trace of CPU execution. The most recent <code>TRACE_LENGTH</code> lines
- * are captured in a buffer and rendered to the JFrame's main text area upon request.
+ * This frame displays a trace of CPU execution. The most recent instructions are
+ * captured in a {@link TraceRing}. The window shows a snapshot of the ring in a list
+ * that only formats the rows that are on screen, so a deep trace is as cheap to
+ * display as a shallow one. The depth of the trace can be set with the
+ * <code>symon.traceDepth</code> system property.
  */
 public class TraceLog extends JFrame {
 
-    private final FifoRingBuffer<CpuState> traceLog;
-    private final JTextArea                    traceLogTextArea;
+    private static final Logger logger = LoggerFactory.getLogger(TraceLog.class);
+
+    public static final String DEPTH_PROPERTY = "symon.traceDepth";
+    public static final int    DEFAULT_DEPTH  = 1 << 20;
+
+    private final TraceRing      traceLog;
+    private final TraceListModel traceListModel;
+    private final JList<String>  traceList;
 
     private static final Dimension MIN_SIZE       = new Dimension(320, 200);
     private static final Dimension PREFERRED_SIZE = new Dimension(640, 480);
-    private static final int       MAX_LOG_LENGTH = 50000;
 
     public TraceLog() {
-        traceLog = new FifoRingBuffer<>(MAX_LOG_LENGTH);
+        this(Integer.getInteger(DEPTH_PROPERTY, DEFAULT_DEPTH));
+    }
+
+    /**
+     * @param depth The number of instructions to keep.
+     */
+    public TraceLog(int depth) {
+        traceLog = new TraceRing(depth);
         setMinimumSize(MIN_SIZE);
         setPreferredSize(PREFERRED_SIZE);
         setResizable(true);
@@ -52,32 +71,95 @@ public class TraceLog extends JFrame {
 
         setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
 
-        traceLogTextArea = new JTextArea();
-        traceLogTextArea.setFont(new Font(Font.MONOSPACED, Font.BOLD, 12));
-        traceLogTextArea.setEditable(false);
+        traceListModel = new TraceListModel();
+        traceList = new JList<>(traceListModel);
+        traceList.setFont(new Font(Font.MONOSPACED, Font.BOLD, 12));
+        traceList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // With a prototype row, the list never has to format every row to lay itself out
+        traceList.setPrototypeCellValue(new CpuState().toTraceEvent().trim());
 
-        JScrollPane scrollableView = new JScrollPane(traceLogTextArea);
+        JScrollPane scrollableView = new JScrollPane(traceList);
 
-        getContentPane().add(scrollableView);
+        getContentPane().add(scrollableView, BorderLayout.CENTER);
+        getContentPane().add(createControlPanel(), BorderLayout.SOUTH);
         pack();
     }
 
+    private JPanel createControlPanel() {
+        JPanel controlPanel = new JPanel();
+        controlPanel.setBorder(new EmptyBorder(0, 5, 0, 5));
+
+        final JTextField findTextField = new JTextField(12);
+        final JButton findButton = new JButton("Find");
+        final JTextField pcTextField = new JTextField(4);
+        final JButton pcButton = new JButton("Go to PC");
+
+        ActionListener findListener = new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String text = findTextField.getText();
+                if (text == null || text.isEmpty()) {
+                    return;
+                }
+                select(traceListModel.getSnapshot().find(text, searchStart()));
+            }
+        };
+        findButton.addActionListener(findListener);
+        findTextField.addActionListener(findListener);
+
+        ActionListener pcListener = new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String text = pcTextField.getText();
+                if (text == null || text.isEmpty()) {
+                    return;
+                }
+                int pc;
+                try {
+                    pc = Integer.parseInt(text, 16) & 0xffff;
+                } catch (NumberFormatException ex) {
+                    logger.warn("Can't parse address {}", text);
+                    return;
+                }
+                select(traceListModel.getSnapshot().indexOfPc(pc, searchStart()));
+            }
+        };
+        pcButton.addActionListener(pcListener);
+        pcTextField.addActionListener(pcListener);
+
+        controlPanel.add(findTextField);
+        controlPanel.add(findButton);
+        controlPanel.add(pcTextField);
+        controlPanel.add(pcButton);
+        return controlPanel;
+    }
+
     /**
-     * Redraw the display with the most recent <code>MAX_LOG_LENGTH</code>
-     * trace events. <strong>CAUTION</strong>: This can be a very expensive
-     * call.
+     * Searches start on the row after the selection, or at the top.
      */
-    public void refresh() {
-        StringBuilder logString = new StringBuilder();        
-        
-        synchronized(traceLog) {
-            for (CpuState state : traceLog) {
-                logString.append(state.toTraceEvent());
-            }
+    private int searchStart() {
+        return traceList.getSelectedIndex() + 1;
+    }
+
+    private void select(int index) {
+        if (index < 0) {
+            Toolkit.getDefaultToolkit().beep();
+            return;
         }
+        traceList.setSelectedIndex(index);
+        traceList.ensureIndexIsVisible(index);
+    }
 
-        synchronized(traceLogTextArea) {
-            traceLogTextArea.setText(logString.toString());
+    /**
+     * Take a new snapshot of the trace and show it, scrolled to the most
+     * recent instruction. This copies the trace, but formats only the rows
+     * that are visible.
+     */
+    public void refresh() {
+        traceListModel.setSnapshot(traceLog.snapshot());
+        int size = traceListModel.getSize();
+        if (size > 0) {
+            traceList.ensureIndexIsVisible(size - 1);
         }
     }
 
@@ -85,36 +167,72 @@ public class TraceLog extends JFrame {
      * Reset the log area.
      */
     public void reset() {
-        synchronized(traceLog) {
-            traceLog.reset();
-        }
-        synchronized(traceLogTextArea) {
-            traceLogTextArea.setText("");
-            traceLogTextArea.setEnabled(true);
-        }
+        traceLog.clear();
+        traceListModel.setSnapshot(traceLog.snapshot());
+        traceList.setEnabled(true);
     }
 
     /**
-     * Append a CPU State to the trace log.
+     * Append a CPU State to the trace log. This copies the fields it needs and
+     * does not allocate, so it is cheap enough to call on every step.
      *
      * @param state The CPU State to append.
      */
     public void append(CpuState state) {
-        synchronized(traceLog) {
-            traceLog.push(new CpuState(state));
-        }
+        traceLog.record(state);
+    }
+
+    /**
+     * @return A copy of the instructions currently held in the trace.
+     */
+    public TraceRing.Snapshot snapshot() {
+        return traceLog.snapshot();
     }
 
     public void simulatorDidStart() {
-        traceLogTextArea.setEnabled(false);
+        traceList.setEnabled(false);
     }
 
     public void simulatorDidStop() {
-        traceLogTextArea.setEnabled(true);
+        traceList.setEnabled(true);
     }
 
     public boolean shouldUpdate() {
-        return isVisible() && traceLogTextArea.isEnabled();
+        return isVisible() && traceList.isEnabled();
     }
 
+    /**
+     * A list model over a trace snapshot. Rows are formatted when the list asks
+     * for them, which it only does for the rows on screen.
+     */
+    private class TraceListModel extends AbstractListModel<String> {
+        private final CpuState state = new CpuState();
+        private TraceRing.Snapshot snapshot = traceLog.snapshot();
+
+        public TraceRing.Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        public void setSnapshot(TraceRing.Snapshot snapshot) {
+            int oldSize = this.snapshot.size();
+            this.snapshot = snapshot;
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            if (snapshot.size() > 0) {
+                fireIntervalAdded(this, 0, snapshot.size() - 1);
+            }
+        }
+
+        @Override
+        public int getSize() {
+            return snapshot.size();
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            snapshot.fill(index, state);
+            return state.toTraceEvent().trim();
+        }
+    }
 }
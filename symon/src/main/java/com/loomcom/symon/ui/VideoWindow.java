@@ -29,28 +29,25 @@ import com.loomcom.symon.exceptions.MemoryAccessException;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
 import java.io.IOException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static java.lang.System.*;
-
 /**
  * VideoWindow represents a graphics framebuffer backed by a 6545 CRTC.
  * Each time the window's VideoPanel is repainted, the video memory is
- * scanned and converted to the appropriate bitmap representation.
+ * compared with a copy of what was last drawn, and only the character
+ * cells that have changed are converted to the appropriate bitmap
+ * representation.
  * <p>
  * The graphical representation of each character is derived from a
- * character generator ROM image. For this simulation, the Commodore PET
- * character generator ROM was chosen, but any character generator ROM
- * could be used in its place.
+ * character generator ROM image, decoded once by a {@link GlyphAtlas}.
+ * The ROM can be changed at any time from the window's menu.
  * <p>
  * It may be convenient to think of this as the View (in the MVC
  * pattern sense) to the Crtc's Model and Controller. Whenever the CRTC
@@ -61,27 +58,36 @@ public class VideoWindow extends JFrame implements DeviceChangeListener {
 
     private static final Logger logger = Logger.getLogger(VideoWindow.class.getName());
 
-    private static final int CHAR_WIDTH = 8;
-    private static final int CHAR_HEIGHT = 8;
+    private static final int CHAR_WIDTH = GlyphAtlas.CHAR_WIDTH;
 
     private final int scaleX, scaleY;
     private final boolean shouldScale;
 
     private BufferedImage image;
-    private int[] charRom;
+    private GlyphAtlas glyphAtlas;
+
+    // The image's packed pixel data, one bit per pixel, and the number of bytes in each line.
+    private byte[] pixels;
+    private int stride;
+
+    // The page of video memory as it was last drawn, and a buffer to read the next page into.
+    // Cells whose character differs between the two are the only ones that need drawing again.
+    private byte[] drawnChars = new byte[0];
+    private byte[] nextChars = new byte[0];
+    private int drawnStartAddress = -1;
+    private int drawnCursorCell = -1;
+    private volatile boolean redrawAll = true;
+
+    // Set by the CPU thread when the CRTC changes, until the EDT has caught up
+    private volatile boolean geometryChangePending = false;
 
     private int horizontalDisplayed;
     private int verticalDisplayed;
     private int scanLinesPerRow;
-    private int cursorBlinkRate;
-    private boolean hideCursor;
 
     private Dimension dimensions;
     private Crtc crtc;
 
-    private ScheduledExecutorService scheduler;
-    private ScheduledFuture<?> cursorBlinker;
-
     /**
      * A panel representing the composite video output, with fast Graphics2D painting.
      */
@@ -89,12 +95,38 @@ public class VideoWindow extends JFrame implements DeviceChangeListener {
         @Override
         public void paintComponent(Graphics g) {
             try {
-                for (int i = 0; i < crtc.getPageSize(); i++) {
-                    int address = crtc.getStartAddress() + i;
-                    int originX = (i % horizontalDisplayed) * CHAR_WIDTH;
-                    int originY = (i / horizontalDisplayed) * scanLinesPerRow;
-                    image.getRaster().setPixels(originX, originY, CHAR_WIDTH, scanLinesPerRow, getGlyph(address));
+                int pageSize = crtc.getPageSize();
+                int startAddress = crtc.getStartAddress();
+                if (nextChars.length != pageSize) {
+                    nextChars = new byte[pageSize];
+                    drawnChars = new byte[pageSize];
+                    redrawAll = true;
                 }
+                crtc.getChars(startAddress, nextChars, 0, pageSize);
+
+                boolean all = redrawAll || startAddress != drawnStartAddress;
+                redrawAll = false;
+
+                int cursorCell = -1;
+                if (crtc.isCursorVisible()) {
+                    cursorCell = crtc.getCursorPosition() - startAddress;
+                }
+
+                glyphAtlas.setCursorLines(crtc.getCursorStartLine(), crtc.getCursorStopLine());
+                int cells = Math.min(pageSize, horizontalDisplayed * verticalDisplayed);
+                for (int i = 0; i < cells; i++) {
+                    if (all || nextChars[i] != drawnChars[i] || i == cursorCell || i == drawnCursorCell) {
+                        int offset = (i / horizontalDisplayed) * scanLinesPerRow * stride + (i % horizontalDisplayed);
+                        glyphAtlas.draw(nextChars[i], i == cursorCell, pixels, offset, stride);
+                    }
+                }
+
+                byte[] drawn = drawnChars;
+                drawnChars = nextChars;
+                nextChars = drawn;
+                drawnStartAddress = startAddress;
+                drawnCursorCell = cursorCell;
+
                 Graphics2D g2d = (Graphics2D) g;
                 if (shouldScale) {
                     g2d.scale(scaleX, scaleY);
@@ -117,40 +149,14 @@ public class VideoWindow extends JFrame implements DeviceChangeListener {
 
     }
 
-    /**
-     * Runnable task that blinks the cursor.
-     */
-    private class CursorBlinker implements Runnable {
-        public void run() {
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    if (cursorBlinkRate > 0) {
-                        hideCursor = !hideCursor;
-                        VideoWindow.this.repaint();
-                    }
-                }
-            });
-        }
-    }
-
     public VideoWindow(Crtc crtc, int scaleX, int scaleY) throws IOException {
         crtc.registerListener(this);
 
-        this.scheduler = Executors.newSingleThreadScheduledExecutor();
         this.crtc = crtc;
-        this.charRom = loadCharRom("/ascii.rom");
+        this.glyphAtlas = new GlyphAtlas(GlyphAtlas.DEFAULT_ROM, crtc.getScanLinesPerRow());
         this.scaleX = scaleX;
         this.scaleY = scaleY;
         this.shouldScale = (scaleX > 1 || scaleY > 1);
-        this.cursorBlinkRate = crtc.getCursorBlinkRate();
-
-        if (cursorBlinkRate > 0) {
-            this.cursorBlinker = scheduler.scheduleAtFixedRate(new CursorBlinker(),
-                                                               cursorBlinkRate,
-                                                               cursorBlinkRate,
-                                                               TimeUnit.MILLISECONDS);
-        }
 
         // Capture some state from the CRTC that will define the
         // window size. When these values change, the window will
@@ -166,47 +172,36 @@ public class VideoWindow extends JFrame implements DeviceChangeListener {
     }
 
     /**
-     * Called by the CRTC on state change.
+     * Called by the CRTC on state change, on the CPU thread. The window's
+     * geometry is only touched on the Event Dispatch Thread, so the change
+     * is handed over to it, once however many changes arrive before it runs.
      */
     public void deviceStateChanged() {
-
-        boolean repackNeeded = false;
-
-        // TODO: I'm not entirely happy with this pattern, and I'd like to make it a bit DRY-er.
-
-        if (horizontalDisplayed != crtc.getHorizontalDisplayed()) {
-            horizontalDisplayed = crtc.getHorizontalDisplayed();
-            repackNeeded = true;
-        }
-
-        if (verticalDisplayed != crtc.getVerticalDisplayed()) {
-            verticalDisplayed = crtc.getVerticalDisplayed();
-            repackNeeded = true;
-        }
-
-        if (scanLinesPerRow != crtc.getScanLinesPerRow()) {
-            scanLinesPerRow = crtc.getScanLinesPerRow();
-            repackNeeded = true;
-        }
-
-        if (cursorBlinkRate != crtc.getCursorBlinkRate()) {
-            cursorBlinkRate = crtc.getCursorBlinkRate();
-
-            if (cursorBlinker != null) {
-                cursorBlinker.cancel(true);
-                cursorBlinker = null;
-                hideCursor = false;
-            }
-
-            if (cursorBlinkRate > 0) {
-                cursorBlinker = scheduler.scheduleAtFixedRate(new CursorBlinker(),
-                                                              cursorBlinkRate,
-                                                              cursorBlinkRate,
-                                                              TimeUnit.MILLISECONDS);
-            }
+        if (!geometryChangePending) {
+            geometryChangePending = true;
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    geometryChangePending = false;
+                    updateGeometry();
+                }
+            });
         }
+    }
 
-        if (repackNeeded) {
+    /**
+     * Rebuild the image and re-pack the window if the CRTC's geometry has
+     * changed. Called on the Event Dispatch Thread.
+     */
+    private void updateGeometry() {
+        int horizontal = crtc.getHorizontalDisplayed();
+        int vertical = crtc.getVerticalDisplayed();
+        int scanLines = crtc.getScanLinesPerRow();
+
+        if (horizontal != horizontalDisplayed || vertical != verticalDisplayed || scanLines != scanLinesPerRow) {
+            horizontalDisplayed = horizontal;
+            verticalDisplayed = vertical;
+            scanLinesPerRow = scanLines;
             buildImage();
             invalidate();
             pack();
@@ -227,37 +222,51 @@ public class VideoWindow extends JFrame implements DeviceChangeListener {
         containerPane.add(new VideoPanel(), BorderLayout.CENTER);
 
         getContentPane().add(containerPane, BorderLayout.CENTER);
+        setJMenuBar(createMenuBar());
         setResizable(false);
         pack();
     }
 
-    /**
-     * Returns an array of pixels (including extra scanlines, if any) corresponding to the
-     * Character ROM plus cursor overlay (if any). The cursor overlay simulates an XOR
-     * of the Character Rom output and the 6545 Cursor output.
-     *
-     * @param address The address of the character being requested.
-     * @return An array of integers representing the pixel data.
-     */
-    private int[] getGlyph(int address) throws MemoryAccessException {
-        int chr = crtc.getCharAtAddress(address);
-        int romOffset = (chr & 0xff) * (CHAR_HEIGHT * CHAR_WIDTH);
-        int[] glyph = new int[CHAR_WIDTH * scanLinesPerRow];
+    private JMenuBar createMenuBar() {
+        JMenuBar menuBar = new JMenuBar();
+        JMenu romMenu = new JMenu("Character ROM");
+        ButtonGroup group = new ButtonGroup();
 
-        // Populate the character
-        arraycopy(charRom, romOffset, glyph, 0, CHAR_WIDTH * Math.min(CHAR_HEIGHT, scanLinesPerRow));
+        for (final String[] rom : GlyphAtlas.CHARACTER_ROMS) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(rom[0]);
+            item.setSelected(rom[1].equals(glyphAtlas.getResource()));
+            item.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    try {
+                        setCharacterRom(rom[1]);
+                    } catch (IOException ex) {
+                        logger.log(Level.SEVERE, "Unable to load character ROM " + rom[1] + ": " + ex.getMessage());
+                    }
+                }
+            });
+            group.add(item);
+            romMenu.add(item);
+        }
 
-        // Overlay the cursor
-        if (!hideCursor && crtc.isCursorEnabled() && crtc.getCursorPosition() == address) {
-            int cursorStart = Math.min(glyph.length, crtc.getCursorStartLine() * CHAR_WIDTH);
-            int cursorStop = Math.min(glyph.length, (crtc.getCursorStopLine() + 1) * CHAR_WIDTH);
+        menuBar.add(romMenu);
+        return menuBar;
+    }
 
-            for (int i = cursorStart; i < cursorStop; i++) {
-                glyph[i] ^= 0xff;
-            }
-        }
+    /**
+     * Switch to a different Character ROM.
+     *
+     * @param resource The ROM resource to use, such as <tt>/pet.rom</tt>.
+     * @throws IOException If the ROM cannot be read.
+     */
+    public void setCharacterRom(String resource) throws IOException {
+        glyphAtlas = new GlyphAtlas(resource, scanLinesPerRow);
+        redrawAll = true;
+        repaint();
+    }
 
-        return glyph;
+    public String getCharacterRom() {
+        return glyphAtlas.getResource();
     }
 
     private void buildImage() {
@@ -265,49 +274,9 @@ public class VideoWindow extends JFrame implements DeviceChangeListener {
         int rasterHeight = scanLinesPerRow * verticalDisplayed;
         this.image = new BufferedImage(rasterWidth, rasterHeight, BufferedImage.TYPE_BYTE_BINARY);
         this.dimensions = new Dimension(rasterWidth * scaleX, rasterHeight * scaleY);
-    }
-
-    /**
-     * Load a Character ROM file and convert it into an array of pixel data usable
-     * by the underlying BufferedImage's Raster.
-     * <p>
-     * Since the BufferedImage is a TYPE_BYTE_BINARY, the data must be converted
-     * into a single byte per pixel, 0 for black and 255 for white.
-
-     * @param resource The ROM file resource to load.
-     * @return An array of glyphs, each ready for insertion.
-     * @throws IOException
-     */
-    private int[] loadCharRom(String resource) throws IOException {
-        BufferedInputStream bis = null;
-        try {
-            bis = new BufferedInputStream(this.getClass().getResourceAsStream(resource));
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            while (bis.available() > 0) {
-                bos.write(bis.read());
-            }
-            bos.flush();
-            bos.close();
-
-            byte[] raw = bos.toByteArray();
-
-            // Now convert the raw ROM image into a format suitable for
-            // insertion directly into the BufferedImage.
-            int[] converted = new int[raw.length * CHAR_WIDTH];
-
-            int romIndex = 0;
-            for (int i = 0; i < converted.length;) {
-                byte charRow = raw[romIndex++];
-
-                for (int j = 7; j >= 0; j--) {
-                    converted[i++] = ((charRow & (1 << j)) == 0) ? 0 : 0xff;
-                }
-            }
-            return converted;
-        } finally {
-            if (bis != null) {
-                bis.close();
-            }
-        }
+        this.pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        this.stride = ((MultiPixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+        glyphAtlas.setScanLinesPerRow(scanLinesPerRow);
+        this.redrawAll = true;
     }
 }
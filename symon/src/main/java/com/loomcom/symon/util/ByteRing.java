@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.loomcom.symon.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size ring of bytes passed from one producer thread to one consumer
+ * thread without locking, such as characters between the simulated CPU and
+ * the console.
+ * <p/>
+ * Each side only writes its own index, and publishes it with an ordered
+ * store once the bytes it covers are in place. Neither side ever blocks: a
+ * full ring refuses new bytes, and an empty ring returns nothing.
+ */
+public class ByteRing {
+
+    private final byte[] buffer;
+    private final int mask;
+
+    // Sequence number of the next byte to write. Only the producer changes it.
+    private final AtomicLong head = new AtomicLong();
+
+    // Sequence number of the next byte to read. Only the consumer changes it.
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity The number of bytes the ring can hold. This is rounded
+     *                 up to a power of two.
+     */
+    public ByteRing(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Ring capacity out of range: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return The number of bytes waiting to be read.
+     */
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Add a byte to the ring. Must only be called from the producer thread.
+     *
+     * @param value The byte to add, in the low eight bits.
+     * @return false if the ring is full and the byte was not added.
+     */
+    public boolean offer(int value) {
+        long h = head.get();
+        if (h - tail.get() == buffer.length) {
+            return false;
+        }
+        buffer[(int) h & mask] = (byte) value;
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    /**
+     * Take the oldest byte from the ring. Must only be called from the
+     * consumer thread.
+     *
+     * @return The byte, from 0 to 255, or -1 if the ring is empty.
+     */
+    public int poll() {
+        long t = tail.get();
+        if (t == head.get()) {
+            return -1;
+        }
+        int value = buffer[(int) t & mask] & 0xff;
+        tail.lazySet(t + 1);
+        return value;
+    }
+
+    /**
+     * Take as many bytes as are waiting, up to <code>length</code>, in one
+     * go. Must only be called from the consumer thread.
+     *
+     * @return The number of bytes copied into <code>dest</code>.
+     */
+    public int drain(byte[] dest, int offset, int length) {
+        long t = tail.get();
+        int count = (int) Math.min(length, head.get() - t);
+        for (int i = 0; i < count; i++) {
+            dest[offset + i] = buffer[(int) (t + i) & mask];
+        }
+        tail.lazySet(t + count);
+        return count;
+    }
+
+    /**
+     * Discard any bytes waiting to be read. Must only be called from the
+     * consumer thread, or while the consumer is idle.
+     */
+    public void clear() {
+        tail.set(head.get());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.loomcom.symon.util;
+
+import com.loomcom.symon.Cpu;
+import com.loomcom.symon.CpuState;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads back a trace written by {@link TraceWriter}, one instruction at a time.
+ */
+public class TraceReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean endOfChannel;
+
+    private int expectedPc = -1;
+    private int a, x, y, sp, flags;
+    private long cycles;
+    private long count;
+
+    public TraceReader(File file) throws IOException {
+        this(new FileInputStream(file).getChannel());
+    }
+
+    public TraceReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.limit(0);
+
+        for (byte b : TraceWriter.MAGIC) {
+            if (!fill() || buffer.get() != b) {
+                throw new IOException("Not a trace file.");
+            }
+        }
+        if (!fill() || buffer.get() != TraceWriter.VERSION) {
+            throw new IOException("Unsupported trace file version.");
+        }
+    }
+
+    /**
+     * Make sure there is at least one byte in the buffer.
+     *
+     * @return false at the end of the channel.
+     */
+    private boolean fill() throws IOException {
+        while (!buffer.hasRemaining()) {
+            if (endOfChannel) {
+                return false;
+            }
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                endOfChannel = true;
+            }
+            buffer.flip();
+        }
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (!fill()) {
+            throw new EOFException("Trace file ends in the middle of a record.");
+        }
+        return buffer.get() & 0xff;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Read the next instruction into <code>state</code>. The registers, flags,
+     * opcode, operands, <code>lastPc</code> and <code>cycleCounter</code> are
+     * filled in, and <code>stepCounter</code> is set to the record number,
+     * counting from 1.
+     *
+     * @return false if there are no more records.
+     */
+    public boolean next(CpuState state) throws IOException {
+        if (!fill()) {
+            return false;
+        }
+        int header = buffer.get() & 0xff;
+
+        int pc = expectedPc;
+        if ((header & TraceWriter.JUMPED) != 0) {
+            int zigzag = (int) readVarint();
+            pc = (pc + ((zigzag >>> 1) ^ -(zigzag & 1))) & 0xffff;
+        }
+        if ((header & TraceWriter.A_CHANGED) != 0) {
+            a = readByte();
+        }
+        if ((header & TraceWriter.X_CHANGED) != 0) {
+            x = readByte();
+        }
+        if ((header & TraceWriter.Y_CHANGED) != 0) {
+            y = readByte();
+        }
+        if ((header & TraceWriter.SP_CHANGED) != 0) {
+            sp = readByte();
+        }
+        if ((header & TraceWriter.FLAGS_CHANGED) != 0) {
+            flags = readByte();
+        }
+
+        int ir = readByte();
+        int size = Cpu.instructionSizes[ir];
+        state.args[0] = size > 1 ? readByte() : 0;
+        state.args[1] = size > 2 ? readByte() : 0;
+        cycles += readVarint();
+
+        state.lastPc = pc;
+        state.ir = ir;
+        state.instSize = size;
+        state.a = a;
+        state.x = x;
+        state.y = y;
+        state.sp = sp;
+        state.setStatusFlag(flags);
+        state.cycleCounter = cycles;
+        state.stepCounter = ++count;
+
+        expectedPc = TraceWriter.nextPc(pc, ir);
+        return true;
+    }
+
+    /**
+     * Skip over up to <code>n</code> records.
+     *
+     * @return The number of records skipped.
+     */
+    public long skip(long n) throws IOException {
+        CpuState scratch = new CpuState();
+        long skipped = 0;
+        while (skipped < n && next(scratch)) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.loomcom.symon.util;
+
+import com.loomcom.symon.CpuState;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size ring of CPU trace entries, kept as one primitive array per field
+ * so that recording an instruction never allocates.
+ * <p/>
+ * One thread (the simulator) records, and one other thread (the UI) may take
+ * snapshots at the same time without locking. Every entry ever recorded has a
+ * sequence number, and the ring keeps the most recent <code>capacity()</code> of
+ * them. A snapshot checks the write index again after copying, and drops any
+ * entries the writer may have overwritten while the copy was in progress.
+ */
+public class TraceRing {
+
+    private final int mask;
+
+    private final char[] pc;
+    private final byte[] ir;
+    private final byte[] arg0;
+    private final byte[] arg1;
+    private final byte[] a;
+    private final byte[] x;
+    private final byte[] y;
+    private final byte[] sp;
+    private final byte[] flags;
+
+    // Sequence number of the next entry to record. Only the writer changes it.
+    private final AtomicLong head = new AtomicLong();
+
+    // Entries before this sequence number were cleared
+    private volatile long tail;
+
+    /**
+     * @param depth The minimum number of entries to keep. This is rounded up
+     *              to a power of two.
+     */
+    public TraceRing(int depth) {
+        if (depth < 1 || depth > (1 << 30)) {
+            throw new IllegalArgumentException("Trace depth out of range: " + depth);
+        }
+        int capacity = Integer.highestOneBit(depth);
+        if (capacity < depth) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.pc = new char[capacity];
+        this.ir = new byte[capacity];
+        this.arg0 = new byte[capacity];
+        this.arg1 = new byte[capacity];
+        this.a = new byte[capacity];
+        this.x = new byte[capacity];
+        this.y = new byte[capacity];
+        this.sp = new byte[capacity];
+        this.flags = new byte[capacity];
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return The total number of entries recorded, including those that have
+     *         since been overwritten or cleared.
+     */
+    public long count() {
+        return head.get();
+    }
+
+    /**
+     * Record the instruction that was just executed. Must only be called from
+     * the writer thread.
+     */
+    public void record(CpuState state) {
+        long seq = head.get();
+        int i = (int) seq & mask;
+        pc[i] = (char) state.lastPc;
+        ir[i] = (byte) state.ir;
+        arg0[i] = (byte) state.args[0];
+        arg1[i] = (byte) state.args[1];
+        a[i] = (byte) state.a;
+        x[i] = (byte) state.x;
+        y[i] = (byte) state.y;
+        sp[i] = (byte) state.sp;
+        flags[i] = (byte) state.getStatusFlag();
+        // Publish the entry
+        head.lazySet(seq + 1);
+    }
+
+    /**
+     * Forget everything recorded so far. Safe to call from either thread.
+     */
+    public void clear() {
+        tail = head.get();
+    }
+
+    /**
+     * Copy out the entries currently held in the ring, oldest first.
+     */
+    public Snapshot snapshot() {
+        long end = head.get();
+        long start = Math.max(tail, end - capacity());
+        int length = (int) (end - start);
+
+        Snapshot s = new Snapshot(start, length);
+        int from = (int) start & mask;
+        int firstPart = Math.min(length, capacity() - from);
+        s.copy(this, from, 0, firstPart);
+        s.copy(this, 0, firstPart, length - firstPart);
+
+        // While we copied, the writer may have gone on to overwrite the oldest
+        // entries. Anything up to the slot it could be writing now is suspect.
+        long oldestIntact = head.get() - capacity() + 1;
+        if (oldestIntact > start) {
+            s.drop((int) Math.min(length, oldestIntact - start));
+        }
+        return s;
+    }
+
+    /**
+     * A consistent copy of part of a {@link TraceRing}.
+     */
+    public static class Snapshot {
+        private long firstSequence;
+        private int offset;
+        private int size;
+
+        private final char[] pc;
+        private final byte[] ir;
+        private final byte[] arg0;
+        private final byte[] arg1;
+        private final byte[] a;
+        private final byte[] x;
+        private final byte[] y;
+        private final byte[] sp;
+        private final byte[] flags;
+
+        private Snapshot(long firstSequence, int size) {
+            this.firstSequence = firstSequence;
+            this.size = size;
+            this.pc = new char[size];
+            this.ir = new byte[size];
+            this.arg0 = new byte[size];
+            this.arg1 = new byte[size];
+            this.a = new byte[size];
+            this.x = new byte[size];
+            this.y = new byte[size];
+            this.sp = new byte[size];
+            this.flags = new byte[size];
+        }
+
+        private void copy(TraceRing ring, int from, int to, int length) {
+            System.arraycopy(ring.pc, from, pc, to, length);
+            System.arraycopy(ring.ir, from, ir, to, length);
+            System.arraycopy(ring.arg0, from, arg0, to, length);
+            System.arraycopy(ring.arg1, from, arg1, to, length);
+            System.arraycopy(ring.a, from, a, to, length);
+            System.arraycopy(ring.x, from, x, to, length);
+            System.arraycopy(ring.y, from, y, to, length);
+            System.arraycopy(ring.sp, from, sp, to, length);
+            System.arraycopy(ring.flags, from, flags, to, length);
+        }
+
+        private void drop(int count) {
+            firstSequence += count;
+            offset += count;
+            size -= count;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return The sequence number of entry <code>i</code>, counting from the
+         *         first instruction ever recorded in the ring.
+         */
+        public long getSequence(int i) {
+            return firstSequence + i;
+        }
+
+        public int getPc(int i) {
+            return pc[offset + i];
+        }
+
+        public int getIr(int i) {
+            return ir[offset + i] & 0xff;
+        }
+
+        public int getA(int i) {
+            return a[offset + i] & 0xff;
+        }
+
+        public int getX(int i) {
+            return x[offset + i] & 0xff;
+        }
+
+        public int getY(int i) {
+            return y[offset + i] & 0xff;
+        }
+
+        public int getSp(int i) {
+            return sp[offset + i] & 0xff;
+        }
+
+        public int getFlags(int i) {
+            return flags[offset + i] & 0xff;
+        }
+
+        /**
+         * @return The index of the first entry at or after <code>from</code> that
+         *         executed at <code>address</code>, or -1 if there is none.
+         */
+        public int indexOfPc(int address, int from) {
+            for (int i = Math.max(0, from); i < size; i++) {
+                if (pc[offset + i] == address) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return The index of the first entry at or after <code>from</code> whose
+         *         trace line contains <code>text</code>, ignoring case, or -1 if
+         *         there is none. Entries are formatted one at a time as the search
+         *         goes.
+         */
+        public int find(String text, int from) {
+            String needle = text.toUpperCase(Locale.ENGLISH);
+            CpuState state = new CpuState();
+            for (int i = Math.max(0, from); i < size; i++) {
+                fill(i, state);
+                if (state.toTraceEvent().toUpperCase(Locale.ENGLISH).contains(needle)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Fill in <code>state</code> with entry <code>i</code>, for formatting
+         * with {@link CpuState#toTraceEvent()}.
+         */
+        public void fill(int i, CpuState state) {
+            int j = offset + i;
+            state.lastPc = pc[j];
+            state.ir = ir[j] & 0xff;
+            state.args[0] = arg0[j] & 0xff;
+            state.args[1] = arg1[j] & 0xff;
+            state.a = a[j] & 0xff;
+            state.x = x[j] & 0xff;
+            state.y = y[j] & 0xff;
+            state.sp = sp[j] & 0xff;
+            state.setStatusFlag(flags[j] & 0xff);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *                    Maik Merten <maikmerten@googlemail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.loomcom.symon.util;
+
+import com.loomcom.symon.Cpu;
+import com.loomcom.symon.CpuState;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams an execution trace to a compact binary file, one record per
+ * instruction. Records are encoded into a buffer and written out through a
+ * channel in large batches. Read the file back with {@link TraceReader}.
+ * <p/>
+ * The file starts with the 8 byte magic number "SYMTRACE" and a version byte.
+ * Each record then holds:
+ * <ul>
+ * <li>A flags byte, saying which of the fields below are present.</li>
+ * <li>If the instruction did not follow on from the previous one, the
+ * difference between its address and the expected address, as a zigzag varint.</li>
+ * <li>The A, X, Y, SP and status registers, each only if it has changed.</li>
+ * <li>The opcode, followed by as many operand bytes as it takes.</li>
+ * <li>The number of cycles since the previous record, as a varint.</li>
+ * </ul>
+ * A typical instruction takes four or five bytes.
+ */
+public class TraceWriter implements Closeable {
+
+    static final byte[] MAGIC = {'S', 'Y', 'M', 'T', 'R', 'A', 'C', 'E'};
+    static final int VERSION = 1;
+
+    static final int JUMPED = 0x01;
+    static final int A_CHANGED = 0x02;
+    static final int X_CHANGED = 0x04;
+    static final int Y_CHANGED = 0x08;
+    static final int SP_CHANGED = 0x10;
+    static final int FLAGS_CHANGED = 0x20;
+
+    // Enough for the largest possible record
+    static final int MAX_RECORD_SIZE = 24;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+    private int position;
+
+    // What the reader will know from the previous record
+    private int expectedPc = -1;
+    private int a, x, y, sp, flags;
+    private long cycles;
+    private long count;
+
+    public TraceWriter(File file) throws IOException {
+        this(new FileOutputStream(file).getChannel());
+    }
+
+    public TraceWriter(WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        System.arraycopy(MAGIC, 0, buffer, 0, MAGIC.length);
+        position = MAGIC.length;
+        buffer[position++] = VERSION;
+        // The first record always carries every register
+        a = x = y = sp = flags = -1;
+    }
+
+    /**
+     * Append the instruction that was just executed.
+     */
+    public void record(CpuState state) throws IOException {
+        if (position > BUFFER_SIZE - MAX_RECORD_SIZE) {
+            flush();
+        }
+
+        int flagsValue = state.getStatusFlag();
+        int start = position++;
+        int header = 0;
+
+        if (state.lastPc != expectedPc) {
+            header |= JUMPED;
+            // Wrap the difference into the 16 bit address space, so that short
+            // branches come out as small numbers either way.
+            int delta = (short) (state.lastPc - expectedPc);
+            position = writeVarint(buffer, position, (delta << 1) ^ (delta >> 31));
+        }
+        if (state.a != a) {
+            header |= A_CHANGED;
+            buffer[position++] = (byte) (a = state.a);
+        }
+        if (state.x != x) {
+            header |= X_CHANGED;
+            buffer[position++] = (byte) (x = state.x);
+        }
+        if (state.y != y) {
+            header |= Y_CHANGED;
+            buffer[position++] = (byte) (y = state.y);
+        }
+        if (state.sp != sp) {
+            header |= SP_CHANGED;
+            buffer[position++] = (byte) (sp = state.sp);
+        }
+        if (flagsValue != flags) {
+            header |= FLAGS_CHANGED;
+            buffer[position++] = (byte) (flags = flagsValue);
+        }
+        buffer[start] = (byte) header;
+
+        int ir = state.ir;
+        buffer[position++] = (byte) ir;
+        int size = Cpu.instructionSizes[ir];
+        for (int i = 0; i < size - 1; i++) {
+            buffer[position++] = (byte) state.args[i];
+        }
+
+        position = writeVarint(buffer, position, state.cycleCounter - cycles);
+        cycles = state.cycleCounter;
+        expectedPc = nextPc(state.lastPc, ir);
+        count++;
+    }
+
+    /**
+     * @return The address the instruction after one at <code>pc</code> would
+     *         start at, if it did not jump.
+     */
+    static int nextPc(int pc, int ir) {
+        return (pc + Math.max(1, Cpu.instructionSizes[ir])) & 0xffff;
+    }
+
+    private static int writeVarint(byte[] dst, int pos, long value) {
+        while ((value & ~0x7fL) != 0) {
+            dst[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        dst[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * @return The number of records written so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Write out everything recorded so far.
+     */
+    public void flush() throws IOException {
+        byteBuffer.clear();
+        byteBuffer.limit(position);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+        position = 0;
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -2,9 +2,11 @@ package com.loomcom.symon;
 
 import com.loomcom.symon.devices.Acia;
 import com.loomcom.symon.devices.Acia6551;
+import com.loomcom.symon.util.ByteRing;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class AciaTest {
@@ -148,4 +150,153 @@ public class AciaTest {
 
         assertEquals(0x10, acia.read(0x0001));
     }
+
+    @Test
+    public void baudRateDelayShouldBeMeasuredInClockCycles() throws Exception {
+        Bus mockBus = mock(Bus.class);
+        when(mockBus.getCycleCount()).thenReturn(1000L);
+
+        Acia acia = new Acia6551(0x0000);
+        acia.setBus(mockBus);
+        // 9600 baud is 833 cycles per character at 1 MHz
+        acia.setBaudRate(9600);
+
+        acia.txWrite('a');
+        acia.txRead();
+        assertEquals(0x00, acia.read(0x0001) & 0x10);
+
+        when(mockBus.getCycleCount()).thenReturn(1832L);
+        assertEquals(0x00, acia.read(0x0001) & 0x10);
+
+        when(mockBus.getCycleCount()).thenReturn(1833L);
+        assertEquals(0x10, acia.read(0x0001) & 0x10);
+    }
+
+    @Test
+    public void shouldPassCharactersThroughAttachedBuffers() throws Exception {
+        Bus mockBus = mock(Bus.class);
+        ByteRing tx = new ByteRing(2);
+        ByteRing rx = new ByteRing(4);
+
+        Acia acia = new Acia6551(0x0000);
+        acia.setBus(mockBus);
+        acia.setBuffers(tx, rx);
+
+        // Written characters go straight to the buffer until it fills
+        acia.write(0, 'a');
+        acia.write(0, 'b');
+        assertEquals(0x10, acia.read(0x0001) & 0x10);
+        acia.write(0, 'c');
+        assertEquals(0x00, acia.read(0x0001) & 0x10);
+        assertEquals('a', tx.poll());
+        assertEquals(0x10, acia.read(0x0001) & 0x10);
+        assertEquals('b', tx.poll());
+        assertEquals('c', tx.poll());
+        assertEquals(-1, tx.poll());
+
+        // Received characters are picked up when the status is read, and
+        // the next one as soon as the data register is read
+        rx.offer('x');
+        rx.offer('y');
+        assertEquals(0x00, acia.peek(0x0001) & 0x08);
+        assertEquals(0x08, acia.read(0x0001) & 0x08);
+        assertEquals('x', acia.read(0x0000));
+        assertEquals('y', acia.peek(0x0000));
+        assertEquals('y', acia.read(0x0000));
+        assertEquals(0x00, acia.read(0x0001) & 0x08);
+        assertTrue(rx.isEmpty());
+    }
+
+    @Test
+    public void shouldInterruptWhenBufferedInputIsServiced() throws Exception {
+        Bus mockBus = mock(Bus.class);
+        ByteRing rx = new ByteRing(4);
+
+        Acia acia = new Acia6551(0x0000);
+        acia.setBus(mockBus);
+        acia.setBuffers(null, rx);
+
+        // Disable TX IRQ, Enable RX IRQ
+        acia.write(2, 0x00);
+
+        acia.serviceBuffers();
+        verify(mockBus, never()).assertIrq();
+
+        rx.offer('a');
+        acia.serviceBuffers();
+        verify(mockBus, times(1)).assertIrq();
+        assertEquals('a', acia.rxRead());
+    }
+
+    @Test
+    public void shouldDiscardBufferedInput() throws Exception {
+        Bus mockBus = mock(Bus.class);
+        ByteRing rx = new ByteRing(4);
+
+        Acia acia = new Acia6551(0x0000);
+        acia.setBus(mockBus);
+        acia.setBuffers(null, rx);
+
+        rx.offer('a');
+        rx.offer('b');
+        acia.discardInput();
+        assertTrue(rx.isEmpty());
+        assertEquals(0x00, acia.read(0x0001) & 0x08);
+
+        rx.offer('c');
+        assertEquals(0x08, acia.read(0x0001) & 0x08);
+        assertEquals('c', acia.read(0x0000));
+    }
+
+    @Test
+    public void receiveInterruptShouldWaitForBaudRateDelay() throws Exception {
+        Bus mockBus = mock(Bus.class);
+        EventScheduler scheduler = new EventScheduler();
+        when(mockBus.getScheduler()).thenReturn(scheduler);
+        when(mockBus.getCycleCount()).thenReturn(1000L);
+
+        Acia acia = new Acia6551(0x0000);
+        acia.setBus(mockBus);
+        acia.setBaudRate(9600);
+
+        // Disable TX IRQ, Enable RX IRQ
+        acia.write(2, 0x00);
+
+        // The first character is ready at once
+        acia.rxWrite('a');
+        verify(mockBus, times(1)).assertIrq();
+        assertEquals('a', acia.rxRead());
+
+        // The next one interrupts when the baud rate delay is up, 833 cycles later
+        acia.rxWrite('b');
+        verify(mockBus, times(1)).assertIrq();
+        assertEquals(1833L, scheduler.getNextEventCycle());
+
+        scheduler.runUntil(1832L);
+        verify(mockBus, times(1)).assertIrq();
+        scheduler.runUntil(1833L);
+        verify(mockBus, times(2)).assertIrq();
+    }
+
+    @Test
+    public void transmitInterruptShouldWaitForBaudRateDelay() throws Exception {
+        Bus mockBus = mock(Bus.class);
+        EventScheduler scheduler = new EventScheduler();
+        when(mockBus.getScheduler()).thenReturn(scheduler);
+        when(mockBus.getCycleCount()).thenReturn(1000L);
+
+        Acia acia = new Acia6551(0x0000);
+        acia.setBus(mockBus);
+        acia.setBaudRate(9600);
+
+        // Enable TX IRQ, Disable RX IRQ
+        acia.write(2, 0x06);
+
+        acia.write(0, 'a');
+        acia.txRead();
+        verify(mockBus, never()).assertIrq();
+
+        scheduler.runUntil(1833L);
+        verify(mockBus, times(1)).assertIrq();
+    }
 }
@@ -0,0 +1,152 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.devices.Memory;
+import junit.framework.TestCase;
+
+public class BreakpointsTest extends TestCase {
+
+    public void testAddAndRemove() {
+        Breakpoints breakpoints = new Breakpoints(null);
+        assertTrue(breakpoints.isEmpty());
+        assertFalse(breakpoints.contains(0x0000));
+
+        breakpoints.addBreakpoint(0xffff);
+        breakpoints.addBreakpoint(0x0000);
+        breakpoints.addBreakpoint(0x0040);
+        breakpoints.addBreakpoint(0x0040);
+        assertFalse(breakpoints.isEmpty());
+        assertEquals(3, breakpoints.getRowCount());
+        assertTrue(breakpoints.contains(0x0000));
+        assertTrue(breakpoints.contains(0x0040));
+        assertTrue(breakpoints.contains(0xffff));
+        assertFalse(breakpoints.contains(0x0001));
+        assertFalse(breakpoints.contains(0x003f));
+        assertFalse(breakpoints.contains(0x0041));
+        assertFalse(breakpoints.contains(0xfffe));
+
+        breakpoints.removeBreakpoint(0x0040);
+        assertFalse(breakpoints.contains(0x0040));
+        assertTrue(breakpoints.contains(0x0000));
+        assertEquals(2, breakpoints.getRowCount());
+    }
+
+    public void testTableIsSorted() {
+        Breakpoints breakpoints = new Breakpoints(null);
+        breakpoints.addBreakpoint(0xc000);
+        breakpoints.addBreakpoint(0x0300);
+        breakpoints.addBreakpoint(0x1234);
+
+        assertEquals("$0300", breakpoints.getValueAt(0, 0));
+        assertEquals("$1234", breakpoints.getValueAt(1, 0));
+        assertEquals("$C000", breakpoints.getValueAt(2, 0));
+
+        breakpoints.removeBreakpointAtIndex(1);
+        assertFalse(breakpoints.contains(0x1234));
+        assertEquals("$C000", breakpoints.getValueAt(1, 0));
+
+        // Out of range indexes are ignored
+        breakpoints.removeBreakpointAtIndex(-1);
+        breakpoints.removeBreakpointAtIndex(2);
+        assertEquals(2, breakpoints.getRowCount());
+
+        breakpoints.removeBreakpointAtIndex(0);
+        breakpoints.removeBreakpointAtIndex(0);
+        assertTrue(breakpoints.isEmpty());
+    }
+
+    public void testConditionParsing() {
+        assertEquals("A == $0D at $C123", BreakCondition.parse("A == $0D at $C123").toString());
+        assertEquals("SP < $20", BreakCondition.parse("s<20").toString());
+        assertEquals("PC >= $C000", BreakCondition.parse("pc >= c000").toString());
+        assertEquals("X != $FF", BreakCondition.parse("X != FF").toString());
+        assertEquals("Y == $01", BreakCondition.parse("Y = 1").toString());
+        assertNull(BreakCondition.parse("Q == 1"));
+        assertNull(BreakCondition.parse("A == 1 at"));
+        assertNull(BreakCondition.parse("C000"));
+    }
+
+    public void testConditionalBreakpoints() throws Exception {
+        Breakpoints breakpoints = new Breakpoints(null);
+        breakpoints.add("A == $0D at $C123");
+        breakpoints.add("SP < 20");
+        assertFalse(breakpoints.isEmpty());
+        assertEquals(2, breakpoints.getRowCount());
+        assertEquals("$C123", breakpoints.getValueAt(0, 0));
+        assertEquals("if A == $0D", breakpoints.getValueAt(0, 1));
+        assertEquals("Any", breakpoints.getValueAt(1, 0));
+
+        CpuState state = new CpuState();
+        state.sp = 0xff;
+        state.pc = 0xc123;
+        state.a = 0x0c;
+        assertFalse(breakpoints.shouldBreak(state));
+        state.a = 0x0d;
+        assertTrue(breakpoints.shouldBreak(state));
+        state.pc = 0xc124;
+        assertFalse(breakpoints.shouldBreak(state));
+        state.sp = 0x1f;
+        assertTrue(breakpoints.shouldBreak(state));
+
+        // The plain PC check is unaffected by conditions
+        assertFalse(breakpoints.contains(0xc123));
+
+        breakpoints.removeBreakpointAtIndex(1);
+        assertFalse(breakpoints.shouldBreak(state));
+        breakpoints.removeBreakpointAtIndex(0);
+        assertTrue(breakpoints.isEmpty());
+    }
+
+    public void testWatchpoints() throws Exception {
+        Bus bus = new Bus(0x0000, 0xffff);
+        bus.addDevice(new Memory(0x0000, 0xffff));
+        Breakpoints breakpoints = new Breakpoints(null, bus);
+        breakpoints.add("write $8800");
+        breakpoints.add("read 0200-02ff");
+        breakpoints.addBreakpoint(0x0300);
+        assertEquals(3, breakpoints.getRowCount());
+        assertEquals("$8800", breakpoints.getValueAt(1, 0));
+        assertEquals("on write", breakpoints.getValueAt(1, 1));
+        assertEquals("$0200-$02FF", breakpoints.getValueAt(2, 0));
+
+        CpuState state = new CpuState();
+        state.pc = 0x1000;
+        bus.read(0x8800);
+        bus.write(0x0200, 1);
+        bus.write(0x8801, 1);
+        assertFalse(breakpoints.shouldBreak(state));
+
+        bus.write(0x8800, 1);
+        assertTrue(breakpoints.shouldBreak(state));
+        // Each hit only stops once
+        assertFalse(breakpoints.shouldBreak(state));
+
+        bus.read(0x02ff);
+        assertTrue(breakpoints.shouldBreak(state));
+
+        bus.read(0x0280);
+        breakpoints.clearWatchpointHits();
+        assertFalse(breakpoints.shouldBreak(state));
+
+        breakpoints.removeBreakpointAtIndex(1);
+        bus.write(0x8800, 1);
+        assertFalse(breakpoints.shouldBreak(state));
+        state.pc = 0x0300;
+        assertTrue(breakpoints.shouldBreak(state));
+    }
+
+    public void testUnparseableBreakpoints() throws Exception {
+        Breakpoints breakpoints = new Breakpoints(null);
+        try {
+            breakpoints.add("break at 3");
+            fail("Should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            breakpoints.add("write 2000-1000");
+            fail("Should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        breakpoints.add("$c000");
+        assertTrue(breakpoints.contains(0xc000));
+    }
+}
@@ -2,6 +2,8 @@ package com.loomcom.symon;
 
 import junit.framework.*;
 
+import java.util.SortedSet;
+
 import com.loomcom.symon.devices.*;
 import com.loomcom.symon.exceptions.*;
 
@@ -119,6 +121,31 @@ public class BusTest extends TestCase {
         assertFalse(c.getCpuState().irqAsserted);
     }
 
+    public void testIrqLineIsWiredOr() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        Cpu c = new Cpu();
+        Memory first = new Memory(0x0000, 0x00ff);
+        Memory second = new Memory(0x0100, 0x01ff);
+        b.addDevice(first);
+        b.addDevice(second);
+
+        b.assertIrq(first);
+        b.addCpu(c);
+        assertTrue(c.isIrqLineAsserted());
+
+        b.assertIrq(second);
+        b.assertIrq(second);
+        b.clearIrq(first);
+        assertTrue(b.isIrqLineAsserted());
+        assertTrue(c.isIrqLineAsserted());
+
+        // Removing a device releases its hold on the line
+        b.removeDevice(second);
+        assertFalse(b.isIrqLineAsserted());
+        assertFalse(c.isIrqLineAsserted());
+        assertFalse(c.getCpuState().irqAsserted);
+    }
+
     public void testSetAndClearNmi() throws Exception {
         Bus b = new Bus(0x0000, 0xffff);
         Cpu c = new Cpu();
@@ -135,4 +162,247 @@ public class BusTest extends TestCase {
         assertFalse(c.getCpuState().nmiAsserted);
     }
 
+    public void testPeekDoesNotConsumeAciaData() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        Acia acia = new Acia6551(0x8800);
+        b.addDevice(new Memory(0x0000, 0x7fff));
+        b.addDevice(acia);
+
+        acia.rxWrite('x');
+        assertEquals('x', b.peek(0x8800));
+        assertTrue(acia.hasRxChar());
+        assertEquals(0x08, b.peek(0x8801) & 0x08);
+
+        assertEquals('x', b.read(0x8800));
+        assertFalse(acia.hasRxChar());
+    }
+
+    public void testBulkPeek() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        Memory low = new Memory(0x0000, 0x00ff);
+        Memory high = new Memory(0x0100, 0x01ff);
+        Memory overlay = new Memory(0x0180, 0x018f);
+        b.addDevice(low);
+        b.addDevice(high);
+        b.addDevice(overlay, 1);
+
+        for (int i = 0; i < 0x200; i++) {
+            b.write(i, i & 0xff);
+        }
+        overlay.fill(0xaa);
+
+        byte[] dst = new byte[0x210];
+        b.peek(0x0000, dst);
+        for (int i = 0; i < 0x200; i++) {
+            int expected = (i >= 0x180 && i <= 0x18f) ? 0xaa : i & 0xff;
+            assertEquals("at " + i, expected, dst[i] & 0xff);
+        }
+        // Unmapped addresses read as zero
+        for (int i = 0x200; i < 0x210; i++) {
+            assertEquals(0, dst[i]);
+        }
+
+        try {
+            b.peek(0xfff0, new byte[0x20]);
+            fail("Should have thrown.");
+        } catch (MemoryAccessException ex) {
+            // expected
+        }
+    }
+
+    public void testFastPathMatchesDevices() throws Exception {
+        // Neither the bus nor the memory devices start on a page boundary
+        Bus b = new Bus(0x0010, 0x3fff);
+        Memory ram = new Memory(0x0010, 0x1f7f);
+        Memory rom = new Memory(0x1f80, 0x3fff, true);
+        b.addDevice(ram);
+        b.addDevice(rom);
+
+        for (int address = 0x0010; address <= 0x1f7f; address++) {
+            b.write(address, address * 7);
+        }
+        for (int address = 0x0010; address <= 0x1f7f; address++) {
+            assertEquals((address * 7) & 0xff, b.read(address));
+            assertEquals((address * 7) & 0xff, ram.read(address - 0x0010));
+        }
+
+        try {
+            b.write(0x3000, 0x55);
+            fail("Should not be able to write to ROM.");
+        } catch (MemoryAccessException ex) {
+            // expected
+        }
+        assertEquals(0, b.read(0x3000));
+    }
+
+    public void testFastPathDefersToOverlappingDevices() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        Memory ram = new Memory(0x0000, 0xffff);
+        Acia acia = new Acia6551(0x8800);
+        b.addDevice(ram);
+        b.addDevice(acia, 1);
+
+        acia.rxWrite('q');
+        assertEquals('q', b.read(0x8800));
+        assertFalse(acia.hasRxChar());
+
+        // The rest of the page still belongs to RAM
+        b.write(0x8810, 0x42);
+        assertEquals(0x42, b.read(0x8810));
+
+        b.setFastPathEnabled(false);
+        assertFalse(b.isFastPathEnabled());
+        assertEquals(0x42, b.read(0x8810));
+        b.write(0x0000, 0x99);
+        assertEquals(0x99, ram.read(0x0000));
+    }
+
+    public void testHigherPriorityDeviceWins() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        Memory high = new Memory(0x1000, 0x1fff);
+        Memory low = new Memory(0x1800, 0x18ff);
+        b.addDevice(high, 1);
+        // Starts later, but has a lower priority
+        b.addDevice(low);
+
+        b.write(0x1800, 0x42);
+        assertEquals(0x42, high.read(0x0800));
+        assertEquals(0x00, low.read(0x0000));
+    }
+
+    public void testRemoveDeviceUncoversDevicesBelow() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        Memory ram = new Memory(0x0000, 0xffff);
+        Memory overlay = new Memory(0x8800, 0x88ff);
+        b.addDevice(ram);
+        b.addDevice(overlay, 1);
+
+        b.write(0x8800, 0x11);
+        assertEquals(0x11, overlay.read(0x00));
+        assertEquals(0x00, ram.read(0x8800));
+
+        b.removeDevice(overlay);
+        assertEquals(1, b.getDevices().size());
+        b.write(0x8800, 0x22);
+        assertEquals(0x22, ram.read(0x8800));
+        assertEquals(0x11, overlay.read(0x00));
+        assertTrue(b.isComplete());
+
+        // Removing a device that is not on the bus does nothing
+        b.removeDevice(overlay);
+        assertEquals(0x22, b.read(0x8800));
+    }
+
+    public void testRomSwapKeepsHigherPriorityDevices() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        Acia acia = new Acia6850(0xffd0);
+        Memory rom = new Memory(0xe000, 0xffff, true);
+        b.addDevice(new Memory(0x0000, 0xdfff));
+        b.addDevice(acia, 1);
+        b.addDevice(rom);
+
+        Memory newRom = new Memory(0xe000, 0xffff, true);
+        newRom.load(new byte[] {0x4c}, 0x0000);
+        b.removeDevice(rom);
+        b.addDevice(newRom);
+
+        assertEquals(0x4c, b.read(0xe000));
+        acia.rxWrite('z');
+        assertEquals('z', b.read(0xffd1));
+        assertTrue(b.isComplete());
+    }
+
+    public void testDeviceListIsCached() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        Memory high = new Memory(0x8000, 0xffff);
+        Memory low = new Memory(0x0000, 0x7fff);
+        b.addDevice(high, 1);
+        b.addDevice(low);
+
+        SortedSet<Device> devices = b.getDevices();
+        assertSame(devices, b.getDevices());
+        assertSame(low, devices.first());
+        assertSame(high, devices.last());
+        try {
+            devices.clear();
+            fail("Should not be able to modify the device list.");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+
+        b.removeDevice(high);
+        assertEquals(1, b.getDevices().size());
+    }
+
+    public void testBusListenersSeeOnlyTheirRange() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        final int[] deviceReads = new int[1];
+        Memory ram = new Memory(0x0000, 0xffff) {
+            @Override
+            public int read(int address) throws MemoryAccessException {
+                deviceReads[0]++;
+                return super.read(address);
+            }
+
+            @Override
+            public boolean isFastPathSafe() {
+                return true;
+            }
+        };
+        b.addDevice(ram);
+
+        final StringBuilder events = new StringBuilder();
+        BusListener listener = new BusListener() {
+            public void read(int address, int value) {
+                events.append(String.format("r%04x=%02x ", address, value));
+            }
+
+            public void write(int address, int value) {
+                events.append(String.format("w%04x=%02x ", address, value));
+            }
+        };
+        b.addBusListener(listener, 0x1000, 0x1001);
+
+        b.write(0x1001, 0x42);
+        assertEquals(0x42, b.read(0x1001));
+        b.write(0x2000, 0x43);
+        assertEquals(0x43, b.read(0x2000));
+        assertEquals(0x00, b.read(0x1002));
+        assertEquals("w1001=42 r1001=42 ", events.toString());
+
+        // Only the watched page leaves the fast path
+        assertEquals(2, deviceReads[0]);
+
+        // Peeks are not reported
+        assertEquals(0x42, b.peek(0x1001));
+        assertEquals("w1001=42 r1001=42 ", events.toString());
+
+        b.removeBusListener(listener);
+        b.read(0x1001);
+        assertEquals(2, deviceReads[0]);
+        assertEquals("w1001=42 r1001=42 ", events.toString());
+
+        try {
+            b.addBusListener(listener, 0x2000, 0x1000);
+            fail("Should have thrown MemoryRangeException");
+        } catch (MemoryRangeException expected) {
+        }
+    }
+
+    public void testBusListenerOnWholeBus() throws Exception {
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(new Memory(0x0000, 0xffff));
+        final int[] writes = new int[1];
+        b.addBusListener(new BusListener() {
+            public void read(int address, int value) {
+            }
+
+            public void write(int address, int value) {
+                writes[0]++;
+            }
+        });
+        b.write(0x0000, 1);
+        b.write(0xffff, 1);
+        assertEquals(2, writes[0]);
+    }
 }
@@ -0,0 +1,97 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.util.ByteRing;
+import junit.framework.TestCase;
+
+public class ByteRingTest extends TestCase {
+
+    public void testCapacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1, new ByteRing(1).capacity());
+        assertEquals(8, new ByteRing(5).capacity());
+        assertEquals(8192, new ByteRing(8192).capacity());
+        try {
+            new ByteRing(0);
+            fail("Should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testOfferAndPollInOrder() {
+        ByteRing ring = new ByteRing(4);
+        assertTrue(ring.isEmpty());
+        assertEquals(-1, ring.poll());
+
+        assertTrue(ring.offer(0x01));
+        assertTrue(ring.offer(0xff));
+        assertTrue(ring.offer(0x180));
+        assertTrue(ring.offer('d'));
+        assertFalse(ring.offer('e'));
+        assertEquals(4, ring.size());
+
+        assertEquals(0x01, ring.poll());
+        assertEquals(0xff, ring.poll());
+        assertEquals(0x80, ring.poll());
+        assertTrue(ring.offer('f'));
+        assertEquals('d', ring.poll());
+        assertEquals('f', ring.poll());
+        assertEquals(-1, ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    public void testDrainWrapsAround() {
+        ByteRing ring = new ByteRing(4);
+        byte[] dest = new byte[8];
+        ring.offer('a');
+        ring.offer('b');
+        ring.offer('c');
+        assertEquals(2, ring.drain(dest, 0, 2));
+        ring.offer('d');
+        ring.offer('e');
+        ring.offer('f');
+        assertEquals(4, ring.drain(dest, 2, 6));
+        assertEquals("abcdef", new String(dest, 0, 6));
+        assertEquals(0, ring.drain(dest, 0, 8));
+    }
+
+    public void testClear() {
+        ByteRing ring = new ByteRing(4);
+        ring.offer('a');
+        ring.offer('b');
+        ring.clear();
+        assertTrue(ring.isEmpty());
+        assertEquals(-1, ring.poll());
+        assertTrue(ring.offer('c'));
+        assertEquals('c', ring.poll());
+    }
+
+    public void testConcurrentTransferKeepsOrder() throws Exception {
+        final ByteRing ring = new ByteRing(64);
+        final int total = 200000;
+
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < total; i++) {
+                    while (!ring.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        producer.start();
+
+        byte[] batch = new byte[16];
+        int received = 0;
+        while (received < total) {
+            int count = ring.drain(batch, 0, batch.length);
+            if (count == 0) {
+                Thread.yield();
+            }
+            for (int i = 0; i < count; i++) {
+                assertEquals(received & 0xff, batch[i] & 0xff);
+                received++;
+            }
+        }
+        producer.join();
+        assertTrue(ring.isEmpty());
+    }
+}
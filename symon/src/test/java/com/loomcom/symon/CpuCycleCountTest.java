@@ -0,0 +1,133 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.devices.Memory;
+import junit.framework.TestCase;
+
+public class CpuCycleCountTest extends TestCase {
+
+    protected Cpu    cpu;
+    protected Bus    bus;
+    protected Memory mem;
+
+    protected void setUp() throws Exception {
+        this.cpu = new Cpu();
+        this.bus = new Bus(0x0000, 0xffff);
+        this.mem = new Memory(0x0000, 0xffff);
+        bus.addCpu(cpu);
+        bus.addDevice(mem);
+
+        // Load the reset vector.
+        bus.write(0xfffc, Bus.DEFAULT_LOAD_ADDRESS & 0x00ff);
+        bus.write(0xfffd, (Bus.DEFAULT_LOAD_ADDRESS & 0xff00) >>> 8);
+
+        cpu.reset();
+        assertEquals(0, cpu.getCycleCount());
+    }
+
+    /**
+     * Step once and return the number of cycles the instruction took.
+     */
+    private long stepCycles() throws Exception {
+        long before = cpu.getCycleCount();
+        cpu.step();
+        return cpu.getCycleCount() - before;
+    }
+
+    public void test_fixedCycleCounts() throws Exception {
+        bus.loadProgram(0xea,              // NOP
+                        0xa9, 0x01,        // LDA #$01
+                        0x8d, 0x00, 0x10,  // STA $1000
+                        0xee, 0x00, 0x10,  // INC $1000
+                        0x20, 0x00, 0x30); // JSR $3000
+        assertEquals(2, stepCycles());
+        assertEquals(2, stepCycles());
+        assertEquals(4, stepCycles());
+        assertEquals(6, stepCycles());
+        assertEquals(6, stepCycles());
+        assertEquals(20, cpu.getCycleCount());
+        assertEquals(5, cpu.getCpuState().stepCounter);
+    }
+
+    public void test_absoluteIndexedReadPageCross() throws Exception {
+        cpu.setXRegister(0x10);
+        cpu.setYRegister(0x10);
+        bus.loadProgram(0xbd, 0x00, 0x10,  // LDA $1000,X - no crossing
+                        0xbd, 0xf8, 0x10,  // LDA $10f8,X - crosses
+                        0xb9, 0x00, 0x10,  // LDA $1000,Y - no crossing
+                        0xb9, 0xf8, 0x10,  // LDA $10f8,Y - crosses
+                        0xbe, 0xf8, 0x10,  // LDX $10f8,Y - crosses
+                        0xbc, 0xf8, 0x10); // LDY $10f8,X
+        assertEquals(4, stepCycles());
+        assertEquals(5, stepCycles());
+        assertEquals(4, stepCycles());
+        assertEquals(5, stepCycles());
+        assertEquals(5, stepCycles());
+        // X was loaded with 0 by the LDX above, so LDY does not cross
+        assertEquals(4, stepCycles());
+    }
+
+    public void test_indexedWritesAndReadModifyWriteHaveNoPenalty() throws Exception {
+        cpu.setXRegister(0x10);
+        cpu.setYRegister(0x10);
+        bus.loadProgram(0x9d, 0xf8, 0x10,  // STA $10f8,X
+                        0x99, 0xf8, 0x10,  // STA $10f8,Y
+                        0x1e, 0xf8, 0x10,  // ASL $10f8,X
+                        0x91, 0x40);       // STA ($40),Y
+        bus.write(0x40, 0xf8);
+        bus.write(0x41, 0x10);
+        assertEquals(5, stepCycles());
+        assertEquals(5, stepCycles());
+        assertEquals(7, stepCycles());
+        assertEquals(6, stepCycles());
+    }
+
+    public void test_indirectIndexedReadPageCross() throws Exception {
+        cpu.setYRegister(0x10);
+        bus.write(0x40, 0x00);
+        bus.write(0x41, 0x10);
+        bus.write(0x42, 0xf8);
+        bus.write(0x43, 0x10);
+        bus.loadProgram(0xb1, 0x40,  // LDA ($40),Y - no crossing
+                        0xb1, 0x42); // LDA ($42),Y - crosses
+        assertEquals(5, stepCycles());
+        assertEquals(6, stepCycles());
+    }
+
+    public void test_branchPenalties() throws Exception {
+        bus.loadProgram(0xd0, 0x00,  // BNE +0 - taken (Z clear), same page
+                        0xf0, 0x00,  // BEQ +0 - not taken
+                        0xd0, 0x7f); // BNE +127 - taken, same page
+        assertEquals(3, stepCycles());
+        assertEquals(2, stepCycles());
+        assertEquals(3, stepCycles());
+        assertEquals(0x0285, cpu.getProgramCounter());
+
+        cpu.setProgramCounter(0x02f0);
+        bus.write(0x02f0, 0xd0);     // BNE +$20 - taken, crosses to $0312
+        bus.write(0x02f1, 0x20);
+        assertEquals(4, stepCycles());
+        assertEquals(0x0312, cpu.getProgramCounter());
+    }
+
+    public void test_interruptCycles() throws Exception {
+        bus.write(0xfffe, 0x00);
+        bus.write(0xffff, 0x30);
+        bus.write(0x3000, 0xea);  // NOP
+        cpu.clearIrqDisableFlag();
+        cpu.assertIrq();
+        // 7 cycles for the interrupt sequence, plus the NOP at the vector
+        assertEquals(9, stepCycles());
+        assertEquals(0x3001, cpu.getProgramCounter());
+    }
+
+    public void test_resetDoesNotClearCycleCount() throws Exception {
+        bus.loadProgram(0xea);
+        cpu.step();
+        assertEquals(2, cpu.getCycleCount());
+        cpu.reset();
+        assertEquals(2, cpu.getCycleCount());
+        assertEquals(0, cpu.getCpuState().stepCounter);
+        assertEquals(2, bus.getCycleCount());
+        assertEquals(2, new CpuState(cpu.getCpuState()).cycleCounter);
+    }
+}
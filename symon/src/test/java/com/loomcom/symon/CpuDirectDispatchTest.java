@@ -0,0 +1,96 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.devices.Memory;
+import junit.extensions.TestSetup;
+import junit.framework.JUnit4TestAdapter;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Runs the CPU test cases again with the direct dispatch core selected,
+ * and checks that both cores stay in lock step on the functional test ROM.
+ */
+public class CpuDirectDispatchTest extends TestCase {
+
+    private static final String FUNCTIONAL_TEST = "samples/tests/6502_functional_test.bin";
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite("Direct dispatch core");
+        suite.addTestSuite(CpuTest.class);
+        suite.addTestSuite(CpuCycleCountTest.class);
+        suite.addTestSuite(CpuAbsoluteModeTest.class);
+        suite.addTestSuite(CpuAbsoluteXModeTest.class);
+        suite.addTestSuite(CpuAbsoluteYModeTest.class);
+        suite.addTestSuite(CpuAccumulatorModeTest.class);
+        suite.addTestSuite(CpuImmediateModeTest.class);
+        suite.addTest(new JUnit4TestAdapter(CpuImpliedModeTest.class));
+        suite.addTest(new JUnit4TestAdapter(CpuIndexedIndirectModeTest.class));
+        suite.addTest(new JUnit4TestAdapter(CpuIndirectIndexedModeTest.class));
+        suite.addTestSuite(CpuIndirectModeTest.class);
+        suite.addTestSuite(CpuIndirectXModeTest.class);
+        suite.addTestSuite(CpuRelativeModeTest.class);
+        suite.addTestSuite(CpuZeroPageModeTest.class);
+        suite.addTestSuite(CpuZeroPageXModeTest.class);
+        suite.addTestSuite(CpuZeroPageYModeTest.class);
+
+        TestSuite all = new TestSuite("Cpu dispatch cores");
+        all.addTestSuite(CpuDirectDispatchTest.class);
+        all.addTest(new TestSetup(suite) {
+            @Override
+            protected void setUp() {
+                System.setProperty(Cpu.DIRECT_DISPATCH_PROPERTY, "true");
+            }
+
+            @Override
+            protected void tearDown() {
+                System.clearProperty(Cpu.DIRECT_DISPATCH_PROPERTY);
+            }
+        });
+        return all;
+    }
+
+    private Cpu makeCpu(byte[] image, boolean directDispatch) throws Exception {
+        Cpu cpu = new Cpu();
+        cpu.setDirectDispatch(directDispatch);
+        Bus bus = new Bus(0x0000, 0xffff);
+        bus.addCpu(cpu);
+        bus.addDevice(new Memory(0x0000, 0xffff));
+        for (int i = 0; i < image.length; i++) {
+            bus.write(i, image[i] & 0xff);
+        }
+        cpu.reset();
+        cpu.setProgramCounter(0x0400);
+        cpu.setClockPeriodInNs(0);
+        return cpu;
+    }
+
+    public void testCoresAgreeOnFunctionalTest() throws Exception {
+        byte[] image = Files.readAllBytes(new File(FUNCTIONAL_TEST).toPath());
+        Cpu decoded = makeCpu(image, false);
+        Cpu direct = makeCpu(image, true);
+        assertFalse(decoded.isDirectDispatch());
+        assertTrue(direct.isDirectDispatch());
+
+        for (int i = 0; i < 500000; i++) {
+            decoded.step();
+            direct.step();
+
+            CpuState a = decoded.getCpuState();
+            CpuState b = direct.getCpuState();
+            String where = "step " + i + " at $" + Integer.toHexString(a.lastPc);
+            assertEquals(where, a.pc, b.pc);
+            assertEquals(where, a.ir, b.ir);
+            assertEquals(where, a.a, b.a);
+            assertEquals(where, a.x, b.x);
+            assertEquals(where, a.y, b.y);
+            assertEquals(where, a.sp, b.sp);
+            assertEquals(where, a.getStatusFlag(), b.getStatusFlag());
+            assertEquals(where, a.cycleCounter, b.cycleCounter);
+            assertEquals(where, a.toTraceEvent(), b.toTraceEvent());
+        }
+    }
+}
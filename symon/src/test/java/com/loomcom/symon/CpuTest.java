@@ -669,4 +669,125 @@ public class CpuTest extends TestCase {
         cpu.step();
         assertEquals(0x3E, cpu.getAccumulator());
     }
-}
\ No newline at end of file
+
+    public void testThrottledClockKeepsPaceWithWallClock() throws Exception {
+        // JMP $0200, 3 cycles per step
+        bus.loadProgram(0x4c, 0x00, 0x02);
+        cpu.setClockPeriodInNs(1000);
+        assertEquals(1000, cpu.getClockPeriodInNs());
+
+        // 30,000 cycles at 1 MHz should take no less than ~30 ms.
+        long start = System.nanoTime();
+        for (int i = 0; i < 10000; i++) {
+            cpu.step();
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue("ran too fast: " + elapsed + " ns", elapsed >= 25000000L);
+    }
+
+    public void testUnthrottledClock() throws Exception {
+        bus.loadProgram(0x4c, 0x00, 0x02);
+        cpu.setClockPeriodInNs(0);
+        assertEquals(0, cpu.getClockPeriodInNs());
+
+        for (int i = 0; i < 100000; i++) {
+            cpu.step();
+        }
+        assertEquals(0x0200, cpu.getProgramCounter());
+    }
+
+    public void testStepDoesNotReadAhead() throws Exception {
+        final int[] reads = {0};
+        Bus countingBus = new Bus(0x0000, 0xffff);
+        Cpu countingCpu = new Cpu();
+        countingBus.addCpu(countingCpu);
+        countingBus.addDevice(new Memory(0x0000, 0xffff) {
+            @Override
+            public int read(int address) throws MemoryAccessException {
+                reads[0]++;
+                return super.read(address);
+            }
+        });
+        countingBus.write(0xfffc, 0x00);
+        countingBus.write(0xfffd, 0x02);
+        countingCpu.reset();
+        countingBus.loadProgram(0xea,              // NOP
+                                0xad, 0x34, 0x12,  // LDA $1234
+                                0xea);             // NOP
+
+        reads[0] = 0;
+        countingCpu.step();
+        assertEquals(1, reads[0]);
+        countingCpu.step();
+        assertEquals(5, reads[0]);
+
+        // The next instruction is only decoded when asked for, and with a peek
+        assertEquals("NOP", countingCpu.disassembleNextOp());
+        assertEquals(5, reads[0]);
+    }
+
+    public void testCpuListeners() throws Exception {
+        final StringBuilder events = new StringBuilder();
+        CpuListener listener = new CpuListener() {
+            public void beforeExecute(CpuState state) {
+                events.append("before:").append(Integer.toHexString(state.pc)).append(' ');
+            }
+
+            public void afterExecute(CpuState state) {
+                events.append("after:").append(Integer.toHexString(state.pc))
+                      .append('/').append(state.cycleCounter).append(' ');
+            }
+
+            public void interrupt(CpuState state, boolean nmi) {
+                events.append(nmi ? "nmi:" : "irq:").append(Integer.toHexString(state.pc)).append(' ');
+            }
+        };
+        cpu.addCpuListener(listener);
+
+        bus.write(0xfffa, 0x00);  // NMI vector $0300
+        bus.write(0xfffb, 0x03);
+        bus.loadProgram(0xea,     // NOP
+                        0xea);    // NOP
+        bus.write(0x0300, 0xea);
+
+        cpu.step();
+        assertEquals("before:200 after:201/2 ", events.toString());
+
+        events.setLength(0);
+        cpu.assertNmi();
+        cpu.step();
+        assertEquals("nmi:300 before:300 after:301/11 ", events.toString());
+
+        // Removing the last listener stops all events
+        events.setLength(0);
+        cpu.removeCpuListener(listener);
+        cpu.setProgramCounter(0x0200);
+        cpu.step();
+        assertEquals("", events.toString());
+    }
+
+    public void testCpuAdapterAndMultipleListeners() throws Exception {
+        final int[] counts = new int[2];
+        CpuListener first = new CpuAdapter() {
+            @Override
+            public void afterExecute(CpuState state) {
+                counts[0]++;
+            }
+        };
+        CpuListener second = new CpuAdapter() {
+            @Override
+            public void afterExecute(CpuState state) {
+                counts[1]++;
+            }
+        };
+        cpu.addCpuListener(first);
+        cpu.addCpuListener(second);
+        bus.loadProgram(0xea, 0xea, 0xea);
+
+        cpu.step();
+        cpu.removeCpuListener(first);
+        cpu.step();
+        assertEquals(1, counts[0]);
+        assertEquals(2, counts[1]);
+    }
+}
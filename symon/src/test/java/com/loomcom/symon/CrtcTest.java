@@ -392,4 +392,58 @@ public class CrtcTest {
             }
         }
     }
+
+    @Test
+    public void shouldCopyCharsFromVideoMemory() throws Exception {
+        memory.write(0x7000, 'A');
+        memory.write(0x7001, 'B');
+        memory.write(0x73e7, 'Z');
+
+        byte[] chars = new byte[crtc.getPageSize()];
+        crtc.getChars(crtc.getStartAddress(), chars, 0, chars.length);
+
+        assertEquals('A', chars[0]);
+        assertEquals('B', chars[1]);
+        assertEquals(0, chars[2]);
+        assertEquals('Z', chars[999]);
+    }
+
+    @Test
+    public void cursorShouldBlinkInEmulatedTime() throws Exception {
+        Bus bus = new Bus(0x0000, 0xffff);
+        Cpu cpu = new Cpu();
+        bus.addCpu(cpu);
+        bus.addDevice(memory);
+        bus.addDevice(crtc);
+        bus.addDevice(new Memory(0x9010, 0xffff));
+        bus.write(0xfffc, 0x00);
+        bus.write(0xfffd, 0x02);
+        cpu.reset();
+        bus.loadProgram(0x4c, 0x00, 0x02);  // JMP $0200
+
+        // Blinking at 500 ms, which is 500,000 cycles at the nominal 1 MHz
+        assertEquals(500, crtc.getCursorBlinkRate());
+        assertTrue(crtc.isCursorVisible());
+        long start = bus.getScheduler().getNextEventCycle();
+        assertEquals(500000L, start);
+
+        while (cpu.getCycleCount() < start) {
+            cpu.step();
+        }
+        assertFalse(crtc.isCursorVisible());
+        while (cpu.getCycleCount() < start + 500000) {
+            cpu.step();
+        }
+        assertTrue(crtc.isCursorVisible());
+
+        // A steady cursor stops the blink
+        crtc.write(0, 10);
+        crtc.write(1, 0x00);
+        assertTrue(crtc.isCursorVisible());
+        assertEquals(Long.MAX_VALUE, bus.getScheduler().getNextEventCycle());
+
+        // And a disabled cursor is never visible
+        crtc.write(1, 0x20);
+        assertFalse(crtc.isCursorVisible());
+    }
 }
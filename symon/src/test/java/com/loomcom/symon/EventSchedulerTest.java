@@ -0,0 +1,114 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.devices.Memory;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EventSchedulerTest extends TestCase {
+
+    private EventScheduler scheduler;
+    private List<String> fired;
+
+    protected void setUp() {
+        scheduler = new EventScheduler();
+        fired = new ArrayList<>();
+    }
+
+    private EventScheduler.Event event(final String name) {
+        return new EventScheduler.Event() {
+            @Override
+            public void fire(long cycle) {
+                fired.add(name + "@" + cycle);
+            }
+        };
+    }
+
+    public void testEventsRunInCycleOrder() {
+        assertEquals(Long.MAX_VALUE, scheduler.getNextEventCycle());
+
+        scheduler.schedule(event("c"), 300);
+        scheduler.schedule(event("a"), 100);
+        scheduler.schedule(event("b"), 200);
+        scheduler.schedule(event("a2"), 100);
+        assertEquals(100, scheduler.getNextEventCycle());
+        assertEquals(4, scheduler.size());
+
+        scheduler.runUntil(99);
+        assertTrue(fired.isEmpty());
+
+        scheduler.runUntil(250);
+        assertEquals("[a@100, a2@100, b@200]", fired.toString());
+        assertEquals(300, scheduler.getNextEventCycle());
+
+        scheduler.runUntil(1000);
+        assertEquals(4, fired.size());
+        assertEquals(0, scheduler.size());
+        assertEquals(Long.MAX_VALUE, scheduler.getNextEventCycle());
+    }
+
+    public void testRescheduleAndCancel() {
+        EventScheduler.Event a = event("a");
+        EventScheduler.Event b = event("b");
+        scheduler.schedule(a, 100);
+        scheduler.schedule(b, 200);
+        scheduler.schedule(a, 300);
+        assertEquals(2, scheduler.size());
+        assertEquals(200, scheduler.getNextEventCycle());
+        assertTrue(a.isScheduled());
+        assertEquals(300, a.getCycle());
+
+        scheduler.cancel(b);
+        assertFalse(b.isScheduled());
+        assertEquals(300, scheduler.getNextEventCycle());
+        scheduler.cancel(b);
+
+        scheduler.runUntil(1000);
+        assertEquals("[a@300]", fired.toString());
+        assertFalse(a.isScheduled());
+    }
+
+    public void testEventsCanRescheduleThemselves() {
+        EventScheduler.Event periodic = new EventScheduler.Event() {
+            @Override
+            public void fire(long cycle) {
+                fired.add("tick@" + cycle);
+                scheduler.schedule(this, cycle + 10);
+            }
+        };
+        scheduler.schedule(periodic, 5);
+        scheduler.runUntil(37);
+        assertEquals("[tick@5, tick@15, tick@25, tick@35]", fired.toString());
+        assertEquals(45, scheduler.getNextEventCycle());
+    }
+
+    public void testQueueGrows() {
+        for (int i = 20; i > 0; i--) {
+            scheduler.schedule(event("e" + i), i);
+        }
+        scheduler.runUntil(20);
+        assertEquals(20, fired.size());
+        assertEquals("e1@1", fired.get(0));
+        assertEquals("e20@20", fired.get(19));
+    }
+
+    public void testCpuRunsDueEvents() throws Exception {
+        Bus bus = new Bus(0x0000, 0xffff);
+        Cpu cpu = new Cpu();
+        bus.addCpu(cpu);
+        Memory mem = new Memory(0x0000, 0xffff);
+        bus.addDevice(mem);
+        mem.fill(0xea);
+        bus.write(0xfffc, 0x00);
+        bus.write(0xfffd, 0x02);
+        cpu.reset();
+
+        long start = cpu.getCycleCount();
+        bus.getScheduler().schedule(event("e"), start + 5);
+        cpu.step(2);
+        assertTrue(fired.isEmpty());
+        cpu.step();
+        assertEquals("[e@" + (start + 5) + "]", fired.toString());
+    }
+}
@@ -0,0 +1,86 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.ui.GlyphAtlas;
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+
+public class GlyphAtlasTest extends TestCase {
+
+    // 'A' in /ascii.rom
+    private static final int[] ASCII_A = {0x18, 0x24, 0x42, 0x7e, 0x42, 0x42, 0x42, 0x00};
+
+    public void testAllCharacterRomsLoad() throws Exception {
+        for (String[] rom : GlyphAtlas.CHARACTER_ROMS) {
+            GlyphAtlas atlas = new GlyphAtlas(rom[1], 8);
+            assertEquals(rom[1], atlas.getResource());
+        }
+        try {
+            new GlyphAtlas("/no-such.rom", 8);
+            fail("Should have thrown IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testDrawIntoPackedImage() throws Exception {
+        GlyphAtlas atlas = new GlyphAtlas(GlyphAtlas.DEFAULT_ROM, 9);
+        BufferedImage image = new BufferedImage(16, 9, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+        // Second cell on the row, so the stride matters
+        atlas.draw('A', false, pixels, 1, 2);
+
+        for (int line = 0; line < 8; line++) {
+            for (int x = 0; x < 8; x++) {
+                boolean set = (ASCII_A[line] & (0x80 >> x)) != 0;
+                assertEquals(set ? 0xffffffff : 0xff000000, image.getRGB(8 + x, line));
+                assertEquals(0xff000000, image.getRGB(x, line));
+            }
+        }
+        // The extra scan line is blank
+        for (int x = 0; x < 8; x++) {
+            assertEquals(0xff000000, image.getRGB(8 + x, 8));
+        }
+    }
+
+    public void testCursorInvertsSelectedLines() throws Exception {
+        GlyphAtlas atlas = new GlyphAtlas(GlyphAtlas.DEFAULT_ROM, 8);
+        byte[] pixels = new byte[8];
+
+        atlas.setCursorLines(6, 7);
+        atlas.draw('A', true, pixels, 0, 1);
+        for (int line = 0; line < 6; line++) {
+            assertEquals(ASCII_A[line], pixels[line] & 0xff);
+        }
+        assertEquals(0xbd, pixels[6] & 0xff);
+        assertEquals(0xff, pixels[7] & 0xff);
+
+        // Lines past the end of the row are ignored
+        atlas.setCursorLines(0, 31);
+        atlas.draw('A', true, pixels, 0, 1);
+        for (int line = 0; line < 8; line++) {
+            assertEquals(~ASCII_A[line] & 0xff, pixels[line] & 0xff);
+        }
+
+        atlas.draw('A', false, pixels, 0, 1);
+        for (int line = 0; line < 8; line++) {
+            assertEquals(ASCII_A[line], pixels[line] & 0xff);
+        }
+    }
+
+    public void testChangingScanLines() throws Exception {
+        GlyphAtlas atlas = new GlyphAtlas(GlyphAtlas.DEFAULT_ROM, 8);
+        atlas.setCursorLines(0, 0);
+        atlas.setScanLinesPerRow(4);
+        assertEquals(4, atlas.getScanLinesPerRow());
+
+        byte[] pixels = new byte[8];
+        atlas.draw('A', true, pixels, 0, 1);
+        for (int line = 0; line < 4; line++) {
+            assertEquals(ASCII_A[line], pixels[line] & 0xff);
+        }
+        assertEquals(0, pixels[4]);
+    }
+}
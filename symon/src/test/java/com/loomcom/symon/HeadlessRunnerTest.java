@@ -0,0 +1,85 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.machines.SimpleMachine;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HeadlessRunnerTest {
+
+    private SimpleMachine machine;
+    private HeadlessRunner runner;
+
+    @Before
+    public void createRunner() throws Exception {
+        machine = new SimpleMachine();
+        machine.getCpu().setClockPeriodInNs(0);
+        runner = new HeadlessRunner(machine);
+
+        Bus bus = machine.getBus();
+        bus.write(0xfffc, 0x00);
+        bus.write(0xfffd, 0x02);
+        machine.getCpu().reset();
+    }
+
+    @Test
+    public void shouldHaltOnJumpToSelf() throws Exception {
+        machine.getBus().loadProgram(0xe8,              // INX
+                                     0x4c, 0x01, 0x02); // JMP $0201
+
+        assertEquals(HeadlessRunner.HaltReason.TRAP, runner.run());
+        assertEquals(0x0201, machine.getCpu().getProgramCounter());
+        assertEquals(1, machine.getCpu().getXRegister());
+        assertEquals(2, runner.getSteps());
+        assertEquals(5, runner.getCycles());
+    }
+
+    @Test
+    public void shouldHaltWhenStepBudgetIsExhausted() throws Exception {
+        machine.getBus().loadProgram(0xe8,              // INX
+                                     0x4c, 0x00, 0x02); // JMP $0200
+
+        runner.setMaxSteps(10);
+
+        assertEquals(HeadlessRunner.HaltReason.STEP_LIMIT, runner.run());
+        assertEquals(10, runner.getSteps());
+        assertEquals(5, machine.getCpu().getXRegister());
+    }
+
+    @Test
+    public void shouldHaltWhenCycleBudgetIsExhausted() throws Exception {
+        machine.getBus().loadProgram(0xe8,              // INX
+                                     0x4c, 0x00, 0x02); // JMP $0200
+
+        runner.setMaxCycles(50);
+
+        assertEquals(HeadlessRunner.HaltReason.CYCLE_LIMIT, runner.run());
+        assertEquals(50, runner.getCycles());
+    }
+
+    @Test
+    public void shouldHaltAtRequestedAddress() throws Exception {
+        machine.getBus().loadProgram(0xe8,              // INX
+                                     0xe8,              // INX
+                                     0xe8,              // INX
+                                     0x4c, 0x00, 0x02); // JMP $0200
+
+        runner.addHaltAddress(0x0202);
+
+        assertEquals(HeadlessRunner.HaltReason.BREAKPOINT, runner.run());
+        assertEquals(0x0202, machine.getCpu().getProgramCounter());
+        assertEquals(2, machine.getCpu().getXRegister());
+    }
+
+    @Test
+    public void shouldHaltOnBrkIfRequested() throws Exception {
+        machine.getBus().loadProgram(0xe8,  // INX
+                                     0x00); // BRK
+
+        runner.setHaltOnBrk(true);
+
+        assertEquals(HeadlessRunner.HaltReason.BRK, runner.run());
+        assertEquals(0x00, machine.getCpu().getInstruction());
+    }
+}
@@ -0,0 +1,194 @@
+package com.loomcom.symon;
+
+import junit.framework.*;
+
+import com.loomcom.symon.devices.*;
+import com.loomcom.symon.exceptions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ *
+ */
+public class MemoryTest extends TestCase {
+
+    public MemoryTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(MemoryTest.class);
+    }
+
+    private Memory[] makeMemories(boolean readOnly) throws MemoryRangeException {
+        return new Memory[] {
+                new Memory(0x0000, 0x00ff, readOnly),
+                new ByteBufferMemory(0x0000, 0x00ff, readOnly, ByteBuffer.allocate(0x100)),
+                ByteBufferMemory.allocateDirect(0x0000, 0x00ff, readOnly)
+        };
+    }
+
+    public void testWritesAreMaskedToEightBits() throws Exception {
+        for (Memory m : makeMemories(false)) {
+            m.write(0x10, 0x1ff);
+            assertEquals(0xff, m.read(0x10));
+            m.write(0x11, 0x80);
+            assertEquals(0x80, m.read(0x11));
+            assertEquals(0x80, m.peek(0x11));
+        }
+    }
+
+    public void testLoadAndDump() throws Exception {
+        for (Memory m : makeMemories(true)) {
+            m.load(new byte[] {(byte) 0xea, 0x01, (byte) 0x80}, 0xfd);
+            assertEquals(0xea, m.read(0xfd));
+            assertEquals(0x01, m.read(0xfe));
+            assertEquals(0x80, m.read(0xff));
+
+            byte[] dump = m.dump();
+            assertEquals(0x100, dump.length);
+            assertEquals((byte) 0xea, dump[0xfd]);
+            assertEquals(0, dump[0]);
+
+            // The dump is a copy
+            dump[0xfd] = 0;
+            assertEquals(0xea, m.read(0xfd));
+        }
+    }
+
+    public void testLoadOutOfRangeThrows() throws Exception {
+        for (Memory m : makeMemories(false)) {
+            try {
+                m.load(new byte[2], 0xff);
+                fail("Should have thrown MemoryRangeException");
+            } catch (MemoryRangeException expected) {
+            }
+            try {
+                m.load(new byte[1], -1);
+                fail("Should have thrown MemoryRangeException");
+            } catch (MemoryRangeException expected) {
+            }
+        }
+    }
+
+    public void testReadOnlyMemoryRejectsWrites() throws Exception {
+        for (Memory m : makeMemories(true)) {
+            try {
+                m.write(0x00, 0x01);
+                fail("Should have thrown MemoryAccessException");
+            } catch (MemoryAccessException expected) {
+            }
+        }
+    }
+
+    public void testFillAndBulkPeek() throws Exception {
+        for (Memory m : makeMemories(false)) {
+            m.fill(0xa5);
+            m.write(0x21, 0x5a);
+            byte[] dst = new byte[4];
+            m.peek(0x20, dst, 1, 3);
+            assertEquals(0, dst[0]);
+            assertEquals((byte) 0xa5, dst[1]);
+            assertEquals((byte) 0x5a, dst[2]);
+            assertEquals((byte) 0xa5, dst[3]);
+        }
+    }
+
+    public void testBufferTooSmallThrows() throws Exception {
+        try {
+            new ByteBufferMemory(0x0000, 0x00ff, false, ByteBuffer.allocate(0xff));
+            fail("Should have thrown MemoryRangeException");
+        } catch (MemoryRangeException expected) {
+        }
+    }
+
+    public void testByteBufferMemoryOnBus() throws Exception {
+        Bus bus = new Bus(0x0000, 0xffff);
+        ByteBufferMemory ram = ByteBufferMemory.allocateDirect(0x0000, 0x7fff, false);
+        bus.addDevice(ram);
+        bus.write(0x1234, 0x42);
+        assertEquals(0x42, bus.read(0x1234));
+        assertEquals(0x42, ram.getBuffer().get(0x1234));
+        assertEquals(0x42, bus.peek(0x1234));
+    }
+
+    private File tempFile(byte[] contents) throws Exception {
+        File f = File.createTempFile("symon-memory", ".bin");
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    public void testLoadFromFile() throws Exception {
+        File f = tempFile(new byte[] {0x01, 0x02, (byte) 0xff});
+        for (Memory m : makeMemories(true)) {
+            m.loadFromFile(f);
+            assertEquals(0x01, m.read(0x00));
+            assertEquals(0x02, m.read(0x01));
+            assertEquals(0xff, m.read(0x02));
+            assertEquals(0x00, m.read(0x03));
+        }
+
+        Memory small = new Memory(0x0000, 0x0001, false);
+        try {
+            small.loadFromFile(f);
+            fail("Should have thrown MemoryRangeException");
+        } catch (MemoryRangeException expected) {
+        }
+    }
+
+    public void testMappedRom() throws Exception {
+        byte[] image = new byte[0x100];
+        image[0x80] = (byte) 0xea;
+        File f = tempFile(image);
+
+        ByteBufferMemory rom = ByteBufferMemory.mapROM(0xff00, 0xffff, f);
+        assertTrue(rom.isReadOnly());
+        assertEquals(0xea, rom.read(0x80));
+        try {
+            rom.load(new byte[1], 0);
+            fail("Should have thrown MemoryRangeException");
+        } catch (MemoryRangeException expected) {
+        }
+
+        try {
+            ByteBufferMemory.mapROM(0xfe00, 0xffff, f);
+            fail("Should have thrown MemoryRangeException");
+        } catch (MemoryRangeException expected) {
+        }
+    }
+
+    public void testPersistentRamWritesThroughToFile() throws Exception {
+        File f = tempFile(new byte[0]);
+
+        ByteBufferMemory ram = ByteBufferMemory.mapRAM(0x0000, 0x00ff, f, true);
+        assertEquals(0x100, f.length());
+        ram.write(0x10, 0x42);
+        ram.flush();
+
+        assertEquals(0x42, Files.readAllBytes(f.toPath())[0x10]);
+        assertEquals(0x42, ByteBufferMemory.mapRAM(0x0000, 0x00ff, f, true).read(0x10));
+    }
+
+    public void testCopyOnWriteRamLeavesFileAlone() throws Exception {
+        byte[] image = new byte[0x100];
+        image[0x10] = 0x11;
+        File f = tempFile(image);
+
+        ByteBufferMemory ram = ByteBufferMemory.mapRAM(0x0000, 0x00ff, f, false);
+        assertEquals(0x11, ram.read(0x10));
+        ram.write(0x10, 0x42);
+        ram.flush();
+        assertEquals(0x42, ram.read(0x10));
+
+        assertEquals(0x11, Files.readAllBytes(f.toPath())[0x10]);
+    }
+}
@@ -0,0 +1,296 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.devices.SdCard;
+import com.loomcom.symon.devices.SdController;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class SdControllerTest extends TestCase {
+
+    private static final int DATA = 0;
+    private static final int COMMAND = 1;
+    private static final int STATUS = 1;
+
+    private static final int LUN = 5;
+
+    private File image;
+    private File overlay;
+
+    protected void setUp() throws Exception {
+        image = File.createTempFile("symon-sd", ".img");
+        RandomAccessFile raf = new RandomAccessFile(image, "rw");
+        raf.setLength(64 * 512);
+        raf.seek(3 * 512);
+        for (int i = 0; i < 512; i++) {
+            raf.write(i);
+        }
+        raf.close();
+    }
+
+    protected void tearDown() {
+        image.delete();
+        if (overlay != null) {
+            overlay.delete();
+            new File(overlay.getPath() + ".map").delete();
+        }
+    }
+
+    private void select(SdController sd, long lba) throws Exception {
+        sd.write(2, (int) (lba & 0xff));
+        sd.write(3, (int) ((lba >> 8) & 0xff));
+        sd.write(4, (int) ((lba >> 16) & 0xff));
+    }
+
+    private byte[] readSector(SdController sd, long lba) throws Exception {
+        select(sd, lba);
+        sd.write(COMMAND, 0);
+        assertEquals(224, sd.read(STATUS));
+        byte[] data = new byte[512];
+        for (int i = 0; i < 512; i++) {
+            data[i] = (byte) sd.read(DATA);
+        }
+        assertEquals(128, sd.read(STATUS));
+        return data;
+    }
+
+    private void writeSector(SdController sd, long lba, int fill) throws Exception {
+        select(sd, lba);
+        sd.write(COMMAND, 1);
+        assertEquals(160, sd.read(STATUS));
+        for (int i = 0; i < 512; i++) {
+            sd.write(DATA, fill);
+        }
+        assertEquals(128, sd.read(STATUS));
+    }
+
+    private int fileByte(long offset) throws Exception {
+        return fileByte(image, offset);
+    }
+
+    private int fileByte(File file, long offset) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (offset >= raf.length()) {
+                return -1;
+            }
+            raf.seek(offset);
+            return raf.read();
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testReadSector() throws Exception {
+        SdController sd = new SdController(0, image);
+        byte[] data = readSector(sd, 3);
+        for (int i = 0; i < 512; i++) {
+            assertEquals(i & 0xff, data[i] & 0xff);
+        }
+        assertEquals(0, readSector(sd, 4)[0]);
+        sd.shutdown();
+    }
+
+    public void testWritesAreHeldUntilFlushed() throws Exception {
+        SdController sd = new SdController(0, image);
+        writeSector(sd, 5, 0xa5);
+        assertEquals(0xa5, readSector(sd, 5)[100] & 0xff);
+        assertEquals(0, fileByte(5 * 512));
+
+        sd.flush();
+        assertEquals(0xa5, fileByte(5 * 512));
+        assertEquals(0xa5, fileByte(6 * 512 - 1));
+
+        writeSector(sd, 6, 0x5a);
+        sd.shutdown();
+        assertEquals(0x5a, fileByte(6 * 512));
+
+        // Once shut down, the card reads as empty
+        assertEquals(0, readSector(sd, 6)[0]);
+    }
+
+    public void testEvictedSectorsAreWrittenBack() throws Exception {
+        SdController sd = new SdController(0, image);
+        writeSector(sd, 0, 0x11);
+        for (int lba = 1; lba <= 300; lba++) {
+            readSector(sd, lba);
+        }
+        assertEquals(0x11, fileByte(0));
+        assertEquals(0x11, readSector(sd, 0)[511] & 0xff);
+        sd.shutdown();
+    }
+
+    public void testOffsetsBeyondTwoGigabytes() throws Exception {
+        SdController sd = new SdController(0, image);
+        long lba = 0x500000;
+        writeSector(sd, lba, 0x77);
+        sd.shutdown();
+
+        assertEquals(0x77, fileByte(lba * 512));
+        assertEquals(lba * 512 + 512, image.length());
+
+        sd = new SdController(0, image);
+        assertEquals(0x77, readSector(sd, lba)[511] & 0xff);
+        sd.shutdown();
+    }
+
+    public void testMissingImage() throws Exception {
+        SdController sd = new SdController(0, new File(image.getPath() + ".missing"));
+        assertEquals(0, readSector(sd, 3)[0]);
+        writeSector(sd, 3, 0xff);
+        sd.flush();
+        sd.shutdown();
+    }
+
+    public void testMappedImage() throws Exception {
+        SdController sd = new SdController(0, image, true);
+        byte[] data = readSector(sd, 3);
+        for (int i = 0; i < 512; i++) {
+            assertEquals(i & 0xff, data[i] & 0xff);
+        }
+
+        // Writes go straight through to the mapping
+        writeSector(sd, 7, 0x3c);
+        assertEquals(0x3c, readSector(sd, 7)[0] & 0xff);
+        sd.flush();
+        assertEquals(0x3c, fileByte(7 * 512));
+
+        // Sectors beyond the end of the image are not mapped
+        assertEquals(0, readSector(sd, 100)[0]);
+        writeSector(sd, 100, 0x42);
+        assertEquals(0x42, readSector(sd, 100)[511] & 0xff);
+        assertEquals(101 * 512, image.length());
+        sd.shutdown();
+        assertEquals(0x42, fileByte(100 * 512));
+    }
+
+    private void testMultiBlock(boolean mapped) throws Exception {
+        SdController sd = new SdController(0, image, mapped);
+
+        select(sd, 10);
+        sd.write(COMMAND, 3);
+        for (int i = 0; i < 3 * 512; i++) {
+            sd.write(DATA, i / 512 + 1);
+        }
+        assertEquals(160, sd.read(STATUS));
+        sd.write(COMMAND, 0xff);
+        assertEquals(128, sd.read(STATUS));
+
+        select(sd, 9);
+        sd.write(COMMAND, 2);
+        for (int lba = 9; lba <= 13; lba++) {
+            for (int i = 0; i < 512; i++) {
+                int expected = (lba >= 10 && lba <= 12) ? lba - 9 : 0;
+                assertEquals(expected, sd.read(DATA));
+            }
+        }
+        assertEquals(224, sd.read(STATUS));
+        sd.write(COMMAND, 0xff);
+        assertEquals(128, sd.read(STATUS));
+
+        sd.shutdown();
+        assertEquals(1, fileByte(10 * 512));
+        assertEquals(3, fileByte(13 * 512 - 1));
+        assertEquals(0, fileByte(13 * 512));
+    }
+
+    public void testMultiBlockCached() throws Exception {
+        testMultiBlock(false);
+    }
+
+    public void testMultiBlockMapped() throws Exception {
+        testMultiBlock(true);
+    }
+
+    private void testOverlay(boolean mapped) throws Exception {
+        overlay = File.createTempFile("symon-sd", ".overlay");
+        overlay.delete();
+
+        SdController sd = new SdController(0, new SdCard(image, overlay, false, mapped));
+        writeSector(sd, 5, 0x99);
+        writeSector(sd, 1000, 0x98);
+        assertEquals(0x99, readSector(sd, 5)[0] & 0xff);
+        assertEquals(0x98, readSector(sd, 1000)[0] & 0xff);
+        assertEquals(4, readSector(sd, 3)[4]);
+        sd.shutdown();
+
+        // The image is untouched, and the overlay holds only what was written
+        assertEquals(0, fileByte(5 * 512));
+        assertEquals(64 * 512, image.length());
+        assertEquals(0x99, fileByte(overlay, 5 * 512));
+        assertEquals(0x98, fileByte(overlay, 1000 * 512 + 511));
+
+        // The overlay can be used again
+        sd = new SdController(0, new SdCard(image, overlay, true, mapped));
+        assertEquals(0x99, readSector(sd, 5)[0] & 0xff);
+        assertEquals(0x98, readSector(sd, 1000)[0] & 0xff);
+        assertEquals(4, readSector(sd, 3)[4]);
+        sd.shutdown();
+    }
+
+    public void testOverlayCached() throws Exception {
+        testOverlay(false);
+    }
+
+    public void testOverlayMapped() throws Exception {
+        testOverlay(true);
+    }
+
+    public void testSharedImage() throws Exception {
+        overlay = File.createTempFile("symon-sd", ".overlay");
+        File otherOverlay = File.createTempFile("symon-sd", ".overlay");
+        try {
+            SdController first = new SdController(0, new SdCard(image, overlay, false, true));
+            SdController second = new SdController(0, new SdCard(image, otherOverlay, false, false));
+            writeSector(first, 3, 0x01);
+            writeSector(second, 3, 0x02);
+            assertEquals(0x01, readSector(first, 3)[0]);
+            assertEquals(0x02, readSector(second, 3)[0]);
+            first.shutdown();
+            second.shutdown();
+            assertEquals(0, fileByte(3 * 512));
+        } finally {
+            otherOverlay.delete();
+            new File(otherOverlay.getPath() + ".map").delete();
+        }
+    }
+
+    public void testReadOnly() throws Exception {
+        SdController sd = new SdController(0, new SdCard(image, null, true, true));
+        writeSector(sd, 3, 0xee);
+        assertEquals(1, readSector(sd, 3)[1]);
+        writeSector(sd, 100, 0xee);
+        sd.shutdown();
+        assertEquals(1, fileByte(3 * 512 + 1));
+        assertEquals(64 * 512, image.length());
+    }
+
+    public void testLuns() throws Exception {
+        File other = File.createTempFile("symon-sd", ".img");
+        try {
+            SdController sd = new SdController(0, new SdCard(image), new SdCard(other, true));
+            assertEquals(0, sd.read(LUN));
+            writeSector(sd, 3, 0x10);
+
+            sd.write(LUN, 1);
+            assertEquals(1, sd.read(LUN));
+            writeSector(sd, 3, 0x11);
+            assertEquals(0x11, readSector(sd, 3)[0]);
+
+            // There is no card at LUN 2
+            sd.write(LUN, 2);
+            writeSector(sd, 3, 0x12);
+            assertEquals(0, readSector(sd, 3)[0]);
+
+            sd.write(LUN, 0);
+            assertEquals(0x10, readSector(sd, 3)[0]);
+
+            sd.shutdown();
+            assertEquals(0x10, fileByte(3 * 512));
+            assertEquals(0x11, fileByte(other, 3 * 512));
+        } finally {
+            other.delete();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.devices.Memory;
+import com.loomcom.symon.util.TraceReader;
+import com.loomcom.symon.util.TraceWriter;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class TraceFileTest extends TestCase {
+
+    private static final String FUNCTIONAL_TEST = "samples/tests/6502_functional_test.bin";
+
+    private Cpu makeCpu(byte[] image, int start) throws Exception {
+        Cpu cpu = new Cpu();
+        Bus bus = new Bus(0x0000, 0xffff);
+        bus.addCpu(cpu);
+        Memory memory = new Memory(0x0000, 0xffff);
+        memory.load(image, 0);
+        bus.addDevice(memory);
+        cpu.reset();
+        cpu.setProgramCounter(start);
+        cpu.setClockPeriodInNs(0);
+        return cpu;
+    }
+
+    private TraceReader reader(byte[] data) throws IOException {
+        return new TraceReader(Channels.newChannel(new ByteArrayInputStream(data)));
+    }
+
+    public void testRoundTripFunctionalTest() throws Exception {
+        byte[] image = Files.readAllBytes(new File(FUNCTIONAL_TEST).toPath());
+        int steps = 300000;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(bytes));
+        Cpu recorded = makeCpu(image, 0x0400);
+        for (int i = 0; i < steps; i++) {
+            recorded.step();
+            writer.record(recorded.getCpuState());
+        }
+        writer.close();
+        assertEquals(steps, writer.getCount());
+        // Well under the 11 bytes a raw record would need
+        assertTrue("trace is " + bytes.size() + " bytes", bytes.size() < steps * 6);
+
+        TraceReader reader = reader(bytes.toByteArray());
+        Cpu replayed = makeCpu(image, 0x0400);
+        CpuState state = new CpuState();
+        for (int i = 0; i < steps; i++) {
+            replayed.step();
+            CpuState expected = replayed.getCpuState();
+            assertTrue(reader.next(state));
+            String where = "step " + i;
+            assertEquals(where, expected.toTraceEvent(), state.toTraceEvent());
+            assertEquals(where, expected.lastPc, state.lastPc);
+            assertEquals(where, expected.cycleCounter, state.cycleCounter);
+            assertEquals(where, i + 1, state.stepCounter);
+        }
+        assertFalse(reader.next(state));
+        reader.close();
+    }
+
+    public void testDumpSlice() throws Exception {
+        byte[] image = new byte[0x10000];
+        byte[] program = {(byte) 0xa9, 0x01,              // LDA #$01
+                          (byte) 0xaa,                    // TAX
+                          (byte) 0xe8,                    // INX
+                          (byte) 0x4c, 0x00, 0x02};       // JMP $0200
+        System.arraycopy(program, 0, image, 0x0200, program.length);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(bytes));
+        Cpu cpu = makeCpu(image, 0x0200);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            cpu.step();
+            writer.record(cpu.getCpuState());
+            if (i >= 3 && i < 7) {
+                expected.append(cpu.getCpuState().toTraceEvent());
+            }
+        }
+        writer.close();
+
+        StringWriter out = new StringWriter();
+        assertEquals(4, TraceDump.dump(reader(bytes.toByteArray()), out, 4, 4, false));
+        assertEquals(expected.toString(), out.toString());
+
+        // Asking for more than there is stops at the end
+        out = new StringWriter();
+        assertEquals(2, TraceDump.dump(reader(bytes.toByteArray()), out, 9, 100, true));
+        assertTrue(out.toString().trim().startsWith("9 "));
+    }
+
+    public void testRejectsOtherFiles() throws Exception {
+        try {
+            reader("NOTATRACE".getBytes("US-ASCII"));
+            fail("Should have thrown IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testTruncatedRecordThrows() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(bytes));
+        CpuState state = new CpuState();
+        state.ir = 0xad;  // LDA absolute, three bytes
+        state.lastPc = 0x1234;
+        writer.record(state);
+        writer.close();
+
+        byte[] data = bytes.toByteArray();
+        TraceReader reader = reader(Arrays.copyOf(data, data.length - 2));
+        try {
+            reader.next(new CpuState());
+            fail("Should have thrown EOFException");
+        } catch (EOFException expected) {
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.util.TraceRing;
+import junit.framework.TestCase;
+
+public class TraceRingTest extends TestCase {
+
+    private CpuState stateFor(long seq) {
+        CpuState state = new CpuState();
+        state.lastPc = (int) seq & 0xffff;
+        state.ir = 0xad;
+        state.args[0] = (int) seq & 0xff;
+        state.args[1] = (int) (seq >> 8) & 0xff;
+        state.a = (int) (seq >> 16) & 0xff;
+        state.x = 0x12;
+        state.y = 0x34;
+        state.sp = 0xfd;
+        state.carryFlag = true;
+        state.negativeFlag = (seq & 1) != 0;
+        return state;
+    }
+
+    private void assertEntry(TraceRing.Snapshot snapshot, int i) {
+        long seq = snapshot.getSequence(i);
+        CpuState expected = stateFor(seq);
+        CpuState actual = new CpuState();
+        snapshot.fill(i, actual);
+        assertEquals(expected.toTraceEvent(), actual.toTraceEvent());
+        assertEquals(expected.lastPc, snapshot.getPc(i));
+        assertEquals(expected.getStatusFlag(), snapshot.getFlags(i));
+    }
+
+    public void testCapacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1, new TraceRing(1).capacity());
+        assertEquals(8, new TraceRing(5).capacity());
+        assertEquals(1 << 20, new TraceRing(1 << 20).capacity());
+        assertEquals(1 << 21, new TraceRing((1 << 20) + 1).capacity());
+    }
+
+    public void testSnapshotBeforeWrapping() {
+        TraceRing ring = new TraceRing(16);
+        assertEquals(0, ring.snapshot().size());
+
+        for (long seq = 0; seq < 10; seq++) {
+            ring.record(stateFor(seq));
+        }
+        TraceRing.Snapshot snapshot = ring.snapshot();
+        assertEquals(10, snapshot.size());
+        assertEquals(0, snapshot.getSequence(0));
+        for (int i = 0; i < snapshot.size(); i++) {
+            assertEntry(snapshot, i);
+        }
+    }
+
+    public void testSnapshotAfterWrappingKeepsNewestEntries() {
+        TraceRing ring = new TraceRing(16);
+        for (long seq = 0; seq < 100; seq++) {
+            ring.record(stateFor(seq));
+        }
+        assertEquals(100, ring.count());
+
+        TraceRing.Snapshot snapshot = ring.snapshot();
+        // The oldest slot is held back in case the writer is busy with it
+        assertEquals(15, snapshot.size());
+        assertEquals(85, snapshot.getSequence(0));
+        assertEquals(99, snapshot.getSequence(snapshot.size() - 1));
+        for (int i = 0; i < snapshot.size(); i++) {
+            assertEntry(snapshot, i);
+        }
+    }
+
+    public void testClear() {
+        TraceRing ring = new TraceRing(16);
+        for (long seq = 0; seq < 5; seq++) {
+            ring.record(stateFor(seq));
+        }
+        ring.clear();
+        assertEquals(0, ring.snapshot().size());
+
+        ring.record(stateFor(5));
+        TraceRing.Snapshot snapshot = ring.snapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals(5, snapshot.getSequence(0));
+        assertEntry(snapshot, 0);
+    }
+
+    public void testSearch() {
+        TraceRing ring = new TraceRing(64);
+        for (long seq = 0; seq < 40; seq++) {
+            ring.record(stateFor(seq));
+        }
+        TraceRing.Snapshot snapshot = ring.snapshot();
+
+        assertEquals(7, snapshot.indexOfPc(0x0007, 0));
+        assertEquals(-1, snapshot.indexOfPc(0x0007, 8));
+        assertEquals(-1, snapshot.indexOfPc(0x1234, 0));
+
+        // Entry 10 is AD 0A 00, which the trace shows as "LDA $000A"
+        assertEquals(10, snapshot.find("lda $000a", 0));
+        assertEquals(10, snapshot.find("000A  AD", 0));
+        assertEquals(-1, snapshot.find("000A  AD", 11));
+        assertEquals(-1, snapshot.find("JMP", 0));
+    }
+
+    public void testConcurrentSnapshotsAreConsistent() throws Exception {
+        final TraceRing ring = new TraceRing(256);
+        final long total = 2000000;
+        final CpuState state = stateFor(0);
+
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for (long seq = 0; seq < total; seq++) {
+                    state.lastPc = (int) seq & 0xffff;
+                    state.a = (int) (seq >> 16) & 0xff;
+                    state.args[1] = (int) (seq >> 8) & 0xff;
+                    ring.record(state);
+                }
+            }
+        });
+        writer.start();
+
+        int snapshots = 0;
+        while (writer.isAlive() || snapshots == 0) {
+            TraceRing.Snapshot snapshot = ring.snapshot();
+            for (int i = 1; i < snapshot.size(); i++) {
+                assertEquals(snapshot.getSequence(i - 1) + 1, snapshot.getSequence(i));
+            }
+            for (int i = 0; i < snapshot.size(); i++) {
+                long seq = snapshot.getSequence(i);
+                assertEquals((int) seq & 0xffff, snapshot.getPc(i));
+                assertEquals((int) (seq >> 16) & 0xff, snapshot.getA(i));
+            }
+            snapshots++;
+        }
+        writer.join();
+        assertEquals(total, ring.count());
+    }
+}
@@ -0,0 +1,275 @@
+package com.loomcom.symon;
+
+import com.loomcom.symon.devices.Acia;
+import com.loomcom.symon.devices.Acia6551;
+import com.loomcom.symon.devices.Memory;
+import com.loomcom.symon.devices.Via6522;
+import junit.framework.TestCase;
+
+public class ViaTest extends TestCase {
+
+    private static final int VIA_BASE = 0x8000;
+
+    private static final int ORB = 0;
+    private static final int ORA = 1;
+    private static final int DDRB = 2;
+    private static final int DDRA = 3;
+    private static final int T1C_L = 4;
+    private static final int T1C_H = 5;
+    private static final int T1L_L = 6;
+    private static final int T1L_H = 7;
+    private static final int T2C_L = 8;
+    private static final int T2C_H = 9;
+    private static final int SR = 10;
+    private static final int ACR = 11;
+    private static final int IFR = 13;
+    private static final int IER = 14;
+
+    private Bus bus;
+    private Cpu cpu;
+    private Memory ram;
+    private Via6522 via;
+
+    protected void setUp() throws Exception {
+        bus = new Bus(0x0000, 0xffff);
+        cpu = new Cpu();
+        ram = new Memory(0x0000, 0x7fff);
+        via = new Via6522(VIA_BASE);
+        Memory rom = new Memory(0x8010, 0xffff);
+        bus.addCpu(cpu);
+        bus.addDevice(ram);
+        bus.addDevice(via);
+        bus.addDevice(rom);
+
+        // Nothing but NOPs, two cycles each
+        ram.fill(0xea);
+        bus.write(0xfffc, 0x00);
+        bus.write(0xfffd, 0x02);
+        cpu.reset();
+    }
+
+    /**
+     * Run NOPs until at least <code>cycles</code> cycles have passed.
+     */
+    private void runFor(long cycles) throws Exception {
+        long end = cpu.getCycleCount() + cycles;
+        while (cpu.getCycleCount() < end) {
+            cpu.step();
+        }
+    }
+
+    public void testTimer1OneShot() throws Exception {
+        via.write(T1C_L, 0x10);
+        via.write(T1C_H, 0x00);
+        assertEquals(0x10, via.read(T1L_L));
+        assertEquals(0x00, via.read(T1L_H));
+        assertEquals(0x10, via.getTimer1());
+
+        runFor(16);
+        assertEquals(0x00, via.getTimer1());
+        assertEquals(0, via.read(IFR) & 0x40);
+
+        runFor(2);
+        assertEquals(0xfffe, via.getTimer1());
+        assertEquals(0x40, via.read(IFR) & 0x40);
+
+        // Peeking leaves the flag alone, reading the low counter clears it
+        assertEquals(0xfe, via.peek(T1C_L));
+        assertEquals(0x40, via.read(IFR) & 0x40);
+        assertEquals(0xfe, via.read(T1C_L));
+        assertEquals(0, via.read(IFR) & 0x40);
+
+        // One shot: no more interrupts, the counter just keeps going down
+        runFor(0x20000);
+        assertEquals(0, via.read(IFR) & 0x40);
+    }
+
+    public void testTimer1FreeRun() throws Exception {
+        via.write(ACR, 0x40);
+        via.write(T1C_L, 0x20);
+        via.write(T1C_H, 0x00);
+
+        // The first interrupt is 33 cycles after loading, and every 34 after that
+        long start = cpu.getCycleCount();
+        int interrupts = 0;
+        while (cpu.getCycleCount() - start < 33 + 34 * 99) {
+            cpu.step();
+            if ((via.read(IFR) & 0x40) != 0) {
+                interrupts++;
+                via.write(IFR, 0x40);
+            }
+        }
+        assertEquals(100, interrupts);
+
+        // Changing the latch takes effect at the next reload
+        via.write(T1L_L, 0x00);
+        via.write(T1L_H, 0x01);
+        runFor(34);
+        assertTrue(via.getTimer1() > 0x20);
+    }
+
+    public void testTimer2OneShot() throws Exception {
+        via.write(T2C_L, 0x08);
+        via.write(T2C_H, 0x00);
+        assertEquals(0x08, via.getTimer2());
+        runFor(8);
+        assertEquals(0, via.read(IFR) & 0x20);
+        runFor(2);
+        assertEquals(0x20, via.read(IFR) & 0x20);
+        via.read(T2C_L);
+        assertEquals(0, via.read(IFR) & 0x20);
+        runFor(0x20000);
+        assertEquals(0, via.read(IFR) & 0x20);
+
+        // Counting pulses, with nothing connected to PB6, holds the count
+        via.write(ACR, 0x20);
+        via.write(T2C_H, 0x12);
+        runFor(100);
+        assertEquals(0x1208, via.getTimer2());
+        assertEquals(0, via.read(IFR) & 0x20);
+    }
+
+    public void testInterruptEnableAndIrq() throws Exception {
+        assertEquals(0x80, via.read(IER));
+        via.write(IER, 0xe0);
+        assertEquals(0xe0, via.read(IER));
+        via.write(IER, 0x20);
+        assertEquals(0xc0, via.read(IER));
+
+        via.write(T1C_L, 0x04);
+        via.write(T1C_H, 0x00);
+        runFor(6);
+        assertEquals(0xc0, via.read(IFR));
+        assertTrue(bus.isIrqLineAsserted());
+        assertTrue(cpu.isIrqLineAsserted());
+
+        // Clearing the flag through the IFR releases the IRQ line
+        via.write(IFR, 0x7f);
+        assertEquals(0x00, via.read(IFR));
+        assertFalse(bus.isIrqLineAsserted());
+        assertFalse(cpu.isIrqLineAsserted());
+
+        // A flag that is not enabled sets IFR without interrupting
+        via.write(T2C_L, 0x04);
+        via.write(T2C_H, 0x00);
+        runFor(6);
+        assertEquals(0x20, via.read(IFR));
+        assertFalse(bus.isIrqLineAsserted());
+    }
+
+    public void testAcknowledgingTheViaLeavesOtherInterruptsPending() throws Exception {
+        Acia acia = new Acia6551(0x8800);
+        acia.setBaudRate(0);
+        bus.addDevice(acia, 1);
+        acia.write(2, 0x00);  // receive interrupts on
+
+        via.write(IER, 0xc0);
+        via.write(T1C_L, 0x04);
+        via.write(T1C_H, 0x00);
+        runFor(6);
+        assertTrue(bus.isIrqLineAsserted());
+
+        acia.rxWrite('a');
+        assertTrue(cpu.getCpuState().irqAsserted);
+
+        // Acknowledging T1 releases only the VIA's hold on the line
+        via.read(T1C_L);
+        assertFalse(bus.isIrqLineAsserted());
+        assertTrue(cpu.getCpuState().irqAsserted);
+    }
+
+    public void testUnacknowledgedInterruptRepeats() throws Exception {
+        bus.loadProgram(0xa9, 0xc0,        // LDA #$C0
+                        0x8d, 0x0e, 0x80,  // STA $800E   ; enable T1 interrupts
+                        0xa9, 0x10,        // LDA #$10
+                        0x8d, 0x04, 0x80,  // STA $8004
+                        0xa9, 0x00,        // LDA #$00
+                        0x8d, 0x05, 0x80,  // STA $8005   ; one shot
+                        0x58,              // CLI
+                        0x4c, 0x10, 0x02); // JMP *
+
+        // IRQ handler: count and return, without acknowledging
+        bus.write(0xfffe, 0x00);
+        bus.write(0xffff, 0x03);
+        bus.write(0x0300, 0xe6);  // INC $10
+        bus.write(0x0301, 0x10);
+        bus.write(0x0302, 0x40);  // RTI
+        bus.write(0x10, 0x00);
+
+        runFor(1000);
+        assertTrue(bus.read(0x10) > 10);
+
+        // Once acknowledged, the interrupts stop
+        via.read(T1C_L);
+        int count = bus.read(0x10);
+        runFor(1000);
+        assertTrue(bus.read(0x10) - count <= 1);
+    }
+
+    public void testShiftRegister() throws Exception {
+        // Shift out under the system clock
+        via.write(ACR, 0x18);
+        via.write(SR, 0x5a);
+        runFor(14);
+        assertEquals(0, via.read(IFR) & 0x04);
+        runFor(2);
+        assertEquals(0x04, via.read(IFR) & 0x04);
+        assertEquals(0x5a, via.peek(SR));
+        assertEquals(0x04, via.read(IFR) & 0x04);
+
+        // Shift in under Timer 2, two T2 periods a bit
+        via.write(ACR, 0x04);
+        via.write(T2C_L, 0x02);
+        via.read(SR);
+        assertEquals(0, via.read(IFR) & 0x04);
+        runFor(62);
+        assertEquals(0, via.read(IFR) & 0x04);
+        runFor(2);
+        assertEquals(0x04, via.read(IFR) & 0x04);
+        assertEquals(0xff, via.read(SR));
+
+        // Disabled: nothing happens
+        via.write(ACR, 0x00);
+        via.write(SR, 0x00);
+        runFor(1000);
+        assertEquals(0, via.read(IFR) & 0x04);
+    }
+
+    public void testPorts() throws Exception {
+        via.write(DDRA, 0x0f);
+        via.write(ORA, 0x55);
+        assertEquals(0xf5, via.read(ORA));
+        via.write(DDRB, 0xff);
+        via.write(ORB, 0x12);
+        assertEquals(0x12, via.read(ORB));
+        assertEquals(0x0f, via.read(DDRA));
+    }
+
+    public void testTimerInterruptsDriveTheCpu() throws Exception {
+        bus.loadProgram(0xa9, 0xc0,        // LDA #$C0
+                        0x8d, 0x0e, 0x80,  // STA $800E   ; enable T1 interrupts
+                        0xa9, 0x40,        // LDA #$40
+                        0x8d, 0x0b, 0x80,  // STA $800B   ; T1 free run
+                        0xa9, 0xfe,        // LDA #$FE
+                        0x8d, 0x04, 0x80,  // STA $8004
+                        0xa9, 0x00,        // LDA #$00
+                        0x8d, 0x05, 0x80,  // STA $8005   ; start, 256 cycle period
+                        0x58,              // CLI
+                        0x4c, 0x15, 0x02); // JMP *
+
+        // IRQ handler: count, acknowledge and return
+        bus.write(0xfffe, 0x00);
+        bus.write(0xffff, 0x03);
+        bus.write(0x0300, 0xe6);  // INC $10
+        bus.write(0x0301, 0x10);
+        bus.write(0x0302, 0xad);  // LDA $8004
+        bus.write(0x0303, 0x04);
+        bus.write(0x0304, 0x80);
+        bus.write(0x0305, 0x40);  // RTI
+        bus.write(0x10, 0x00);
+
+        runFor(256 * 200);
+        int count = bus.read(0x10);
+        assertTrue("Expected about 200 interrupts, got " + count, count >= 199 && count <= 200);
+    }
+}